@@ -1,15 +1,40 @@
 package src;
 
+import src.address.IPv4Address;
 import src.binarysearchtrie.BinarySearchTrie;
+import src.binarysearchtrie.LongestPrefixMatcher;
+import src.binarysearchtrie.LookupEngine;
 import src.pdu.IPv4PDU;
+import src.pdu.MutablePDU;
+import src.pdu.PDUReader;
+import src.pdu.PcapReader;
+import src.pdu.WirePDU;
+import src.router.DecisionCounter;
 import src.router.Route;
+import src.router.FlowTable;
+import src.router.ForwardingPipeline;
+import src.router.IngressInterface;
+import src.router.IngressScheduler;
+import src.router.RouteCache;
+import src.router.RouteHandler;
+import src.router.RouteUpdateFeed;
+import src.router.RouteWriter;
+import src.router.TableReloader;
 import src.router.Router;
 import src.tables.ARPTable;
 import src.tables.NATTable;
 import src.tables.RoutingTable;
 import src.tables.TableReader;
 
-import java.util.Scanner;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 /**
  * Launches the IPv4 router simulation.
@@ -21,17 +46,131 @@ public class SimulationLauncher {
     private static final String ROUTES_FILE = "routes.txt";
     private static final String ARP_FILE = "arp.txt";
     private static final String NAT_FILE = "nat.txt";
+    // The largest burst of PDUs routed together.
+    private static final int MAX_BURST_SIZE = 4096;
+    // The most threads in each stage of the pipeline.
+    private static final int MAX_THREADS = 256;
+    // Captures do not record the interface a packet arrived on.
+    private static final String PCAP_INTERFACE = "eth0";
+
+    // The route lookup engine, the binary search trie by default.
+    private static LookupEngine engine = LookupEngine.BINARY;
+    // The number of PDUs routed together, 1 to route each as soon as it is read.
+    private static int burstSize = 1;
+    // The number of destinations in the route cache, 0 to disable it.
+    private static int routeCacheSize = 0;
+    // The number of flows in the flow table, 0 to disable it.
+    private static int flowTableSize = 0;
+    // The time in milliseconds after which an idle flow is expired.
+    private static long flowTimeout = 30000;
+    // The file of route updates applied while routing, null for none.
+    private static String updatesFile = null;
+    // The time in milliseconds between checks for edited table files, 0 to not reload.
+    private static long reloadInterval = 0;
+    // The number of forwarding workers, 1 to route on the reading thread.
+    private static int threads = 1;
+    // The number of parser threads feeding the forwarding workers.
+    private static int parsers = 1;
+    // The number of threads routing the ingress interface queues, 0 for none.
+    private static int ingressThreads = 0;
+    // The most PDUs waiting on each ingress interface before it drops them.
+    private static int ingressQueueSize = 1024;
+    // The capture file to replay instead of reading PDUs from System.in, null for none.
+    private static String pcapFile = null;
+    // true to write the routes as binary records rather than text.
+    private static boolean binaryOutput = false;
+    // Writes the routes to System.out, while PDUs are routed.
+    private static RouteWriter writer;
+    // The number of PDUs routed so far, read by the route update feed.
+    private static final AtomicLong routedCount = new AtomicLong();
 
     /**
      * The main entry point into the simulation.
      *
-     * @param args The command line arguments, should be empty.
+     * @param args The command line arguments: '-nat' to run part 2,
+     *             '-engine name' to choose the route lookup engine,
+     *             '-burst n' to route PDUs in bursts of n, '-cache n' to
+     *             cache the next hops of n destinations, and '-flows n' with
+     *             an optional '-flow-timeout ms' to keep the decisions of n
+     *             flows, '-updates file' to apply the route updates in the
+     *             file while routing, '-reload ms' to reload the tables
+     *             when their files are edited, '-threads n' with an
+     *             optional '-parsers n' to route on n forwarding workers, and
+     *             '-ingress n' with an optional '-ingress-queue n' to route
+     *             each ingress interface's queue on a pool of n threads,
+     *             '-pcap file' to route the IPv4 packets of a capture file,
+     *             and '-output binary' to write the routes as binary records.
      */
     public static void main(String[] args) {
+        boolean useNAT = false;
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equalsIgnoreCase("-nat")) {
+                useNAT = true;
+            } else if (args[i].equalsIgnoreCase("-engine") && i + 1 < args.length
+                               && LookupEngine.forName(args[i + 1]) != null) {
+                engine = LookupEngine.forName(args[++i]);
+            } else if (args[i].equalsIgnoreCase("-burst") && i + 1 < args.length
+                               && parseBurstSize(args[i + 1]) > 0) {
+                burstSize = parseBurstSize(args[++i]);
+            } else if (args[i].equalsIgnoreCase("-cache") && i + 1 < args.length
+                               && parseCacheSize(args[i + 1]) > 0) {
+                routeCacheSize = parseCacheSize(args[++i]);
+            } else if (args[i].equalsIgnoreCase("-flows") && i + 1 < args.length
+                               && parseFlowTableSize(args[i + 1]) > 0) {
+                flowTableSize = parseFlowTableSize(args[++i]);
+            } else if (args[i].equalsIgnoreCase("-flow-timeout") && i + 1 < args.length
+                               && parseFlowTimeout(args[i + 1]) > 0) {
+                flowTimeout = parseFlowTimeout(args[++i]);
+            } else if (args[i].equalsIgnoreCase("-updates") && i + 1 < args.length) {
+                updatesFile = args[++i];
+            } else if (args[i].equalsIgnoreCase("-reload") && i + 1 < args.length
+                               && parseReloadInterval(args[i + 1]) > 0) {
+                reloadInterval = parseReloadInterval(args[++i]);
+            } else if (args[i].equalsIgnoreCase("-threads") && i + 1 < args.length
+                               && parseThreadCount(args[i + 1]) > 0) {
+                threads = parseThreadCount(args[++i]);
+            } else if (args[i].equalsIgnoreCase("-parsers") && i + 1 < args.length
+                               && parseThreadCount(args[i + 1]) > 0) {
+                parsers = parseThreadCount(args[++i]);
+            } else if (args[i].equalsIgnoreCase("-ingress") && i + 1 < args.length
+                               && parseThreadCount(args[i + 1]) > 0) {
+                ingressThreads = parseThreadCount(args[++i]);
+            } else if (args[i].equalsIgnoreCase("-ingress-queue") && i + 1 < args.length
+                               && parseCacheSize(args[i + 1]) > 0) {
+                ingressQueueSize = parseCacheSize(args[++i]);
+            } else if (args[i].equalsIgnoreCase("-pcap") && i + 1 < args.length) {
+                pcapFile = args[++i];
+            } else if (args[i].equalsIgnoreCase("-output") && i + 1 < args.length
+                               && (args[i + 1].equalsIgnoreCase("text")
+                                           || args[i + 1].equalsIgnoreCase("binary"))) {
+                binaryOutput = args[++i].equalsIgnoreCase("binary");
+            } else {
+                printUsage();
+                return;
+            }
+        }
+        if (reloadInterval > 0 && threads > 1) {
+            // Each worker has its own NAT translations, which one reload cannot carry over.
+            System.err.println("ERROR: '-reload' cannot be used with '-threads'");
+            return;
+        }
+        if (ingressThreads > 0 && (useNAT || threads > 1 || reloadInterval > 0)) {
+            // NAT sessions span interfaces, which each have their own router.
+            System.err.println("ERROR: '-ingress' cannot be used with '-nat', '-threads' or " +
+                                       "'-reload'");
+            return;
+        }
+        if (pcapFile != null && (threads > 1 || ingressThreads > 0 || burstSize > 1)) {
+            // Packets are routed in place in the mapped file, one at a time.
+            System.err.println("ERROR: '-pcap' cannot be used with '-threads', '-ingress' or " +
+                                       "'-burst'");
+            return;
+        }
+
         // Create reader to read from router table.
         TableReader reader;
-        // The binary search trie created from the router table.
-        BinarySearchTrie routingTrie;
+        // The route lookup engine created from the router table.
+        LongestPrefixMatcher routingTrie;
         // The arp table read from arp.txt.
         ARPTable arpTable;
         try {
@@ -40,13 +179,21 @@ public class SimulationLauncher {
             // Construct the router table.
             RoutingTable routingTable = reader.constructRoutingTable();
             reader.close();
-            // Construct the binary search trie from the router table.
-            routingTrie = new BinarySearchTrie(routingTable);
+            // Construct the route lookup engine from the router table.
+            routingTrie = engine.create(routingTable);
             // Try to find arp.txt file.
             reader = new TableReader(ARP_FILE);
             // Construct the ARP table.
             arpTable = reader.constructARPTable();
             reader.close();
+            if (updatesFile != null && !(routingTrie instanceof BinarySearchTrie)) {
+                System.err.println("ERROR: route updates need the binary engine");
+                return;
+            }
+            if (updatesFile != null) {
+                // Fail now if the updates file is missing, rather than once routing.
+                new TableReader(updatesFile).close();
+            }
         } catch (java.io.FileNotFoundException e) {
             // If file not found, tell user.
             System.err.println("ERROR: " + e.getMessage());
@@ -57,76 +204,564 @@ public class SimulationLauncher {
             e.printStackTrace();
             return;
         }
-        if (args.length == 0) {
-            runPart1(routingTrie, arpTable);
-        } else if (args.length == 1 && args[0].equalsIgnoreCase("-nat")) {
+        if (useNAT) {
             runPart2(routingTrie, arpTable);
         } else {
-            System.err.println("ERROR: invalid command line argument(s)");
-            System.err.println("usage: run with '-nat' to run part 2, else run with no arguments " +
-                                     "for part 1");
+            runPart1(routingTrie, arpTable);
+        }
+    }
+
+    /**
+     * Parse the burst size argument.
+     *
+     * @param value The argument.
+     * @return The burst size, or 0 if it is not a number from 1 to MAX_BURST_SIZE.
+     */
+    private static int parseBurstSize(String value) {
+        try {
+            int burstSize = Integer.parseInt(value);
+            return burstSize > MAX_BURST_SIZE ? 0 : Math.max(burstSize, 0);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Parse the route cache size argument.
+     *
+     * @param value The argument.
+     * @return The cache size, or 0 if it is not a number from 1 to
+     * RouteCache.MAX_CAPACITY.
+     */
+    private static int parseCacheSize(String value) {
+        try {
+            int cacheSize = Integer.parseInt(value);
+            return cacheSize > RouteCache.MAX_CAPACITY ? 0 : Math.max(cacheSize, 0);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Parse the flow table size argument.
+     *
+     * @param value The argument.
+     * @return The flow table size, or 0 if it is not a number from 1 to
+     * FlowTable.MAX_CAPACITY.
+     */
+    private static int parseFlowTableSize(String value) {
+        try {
+            int size = Integer.parseInt(value);
+            return size > FlowTable.MAX_CAPACITY ? 0 : Math.max(size, 0);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Parse the flow idle timeout argument.
+     *
+     * @param value The argument.
+     * @return The timeout in milliseconds, or 0 if it is not a positive number
+     * of at most a day.
+     */
+    private static long parseFlowTimeout(String value) {
+        try {
+            long timeout = Long.parseLong(value);
+            return timeout > 86400000L ? 0 : Math.max(timeout, 0);
+        } catch (NumberFormatException e) {
+            return 0;
         }
     }
 
+    /**
+     * Parse the table reload interval argument.
+     *
+     * @param value The argument.
+     * @return The interval in milliseconds, or 0 if it is not a positive
+     * number of at most an hour.
+     */
+    private static long parseReloadInterval(String value) {
+        try {
+            long interval = Long.parseLong(value);
+            return interval > 3600000L ? 0 : Math.max(interval, 0);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Parse a thread count argument.
+     *
+     * @param value The argument.
+     * @return The thread count, or 0 if it is not a number from 1 to
+     * MAX_THREADS.
+     */
+    private static int parseThreadCount(String value) {
+        try {
+            int count = Integer.parseInt(value);
+            return count > MAX_THREADS ? 0 : Math.max(count, 0);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Print the command line usage.
+     */
+    private static void printUsage() {
+        System.err.println("ERROR: invalid command line argument(s)");
+        System.err.println("usage: run with '-nat' to run part 2, else run with no arguments " +
+                                 "for part 1");
+        System.err.println("       add '-engine " + LookupEngine.names() + "' to choose the " +
+                                 "route lookup engine (default binary)");
+        System.err.println("       add '-burst n' to route PDUs in bursts of up to n (default 1, " +
+                                 "at most " + MAX_BURST_SIZE + ")");
+        System.err.println("       add '-cache n' to cache the next hops of up to n destinations");
+        System.err.println("       add '-flows n' to keep the decisions of up to n flows, and " +
+                                 "'-flow-timeout ms' to expire idle flows (default " +
+                                 flowTimeout + ")");
+        System.err.println("       add '-updates file' to apply the route updates in the file " +
+                                 "while routing (binary engine only)");
+        System.err.println("       add '-reload ms' to check the table files every ms " +
+                                 "milliseconds and reload them when edited");
+        System.err.println("       add '-threads n' to route on n forwarding workers, and " +
+                                 "'-parsers n' to parse on n threads (default 1, at most " +
+                                 MAX_THREADS + ")");
+        System.err.println("       add '-ingress n' to queue PDUs by ingress interface and route " +
+                                 "the queues on n threads, and '-ingress-queue n' to drop PDUs " +
+                                 "past n queued on an interface (default " + ingressQueueSize +
+                                 ")");
+        System.err.println("       add '-pcap file' to route the IPv4 packets of a pcap " +
+                                 "capture instead of the PDUs from System.in");
+        System.err.println("       add '-output text|binary' to write the routes as text or as " +
+                                 RouteWriter.RECORD_LENGTH + " byte records (default text)");
+    }
+
     /**
      * Runs part 1 of the simulation, when no "-nat" flag is specified.
      *
-     * @param routingTrie The routing binary search trie.
+     * @param routingTrie The route lookup engine.
      * @param arpTable    The arp table constructed from arp.txt.
      */
-    private static void runPart1(BinarySearchTrie routingTrie, ARPTable arpTable) {
-        // Create a new router from the routing trie and arp table.
-        Router router = new Router(routingTrie, arpTable);
-        getAndRoutePDUs(router);
+    private static void runPart1(LongestPrefixMatcher routingTrie, ARPTable arpTable) {
+        // Create a new router from the routing trie and arp table, one per worker.
+        Router[] routers = new Router[threads];
+        for (int i = 0; i < routers.length; ++i) {
+            routers[i] = new Router(routingTrie, arpTable);
+        }
+        routePDUs(routers, () -> new Router(routingTrie, arpTable));
     }
 
     /**
      * Run part 2 of the simulation, when "-nat" flag is specified.
      *
-     * @param routingTrie The routing binary search trie.
+     * @param routingTrie The route lookup engine.
      * @param arpTable    The arp table constructed from arp.txt.
      */
-    private static void runPart2(BinarySearchTrie routingTrie, ARPTable arpTable) {
-        TableReader reader;
-        try {
-            reader = new TableReader(NAT_FILE);
-        } catch (java.io.FileNotFoundException e) {
-            System.err.println("ERROR: " + e.getMessage());
-            return;
+    private static void runPart2(LongestPrefixMatcher routingTrie, ARPTable arpTable) {
+        // Each worker's router keeps its own NAT translations.
+        Router[] routers = new Router[threads];
+        for (int i = 0; i < routers.length; ++i) {
+            TableReader reader;
+            try {
+                reader = new TableReader(NAT_FILE);
+            } catch (java.io.FileNotFoundException e) {
+                System.err.println("ERROR: " + e.getMessage());
+                return;
+            }
+            NATTable natTable = reader.constructNATTable();
+
+            routers[i] = new Router(routingTrie, arpTable, natTable);
         }
-        NATTable natTable = reader.constructNATTable();
+        routePDUs(routers, null);
+    }
 
-        Router router = new Router(routingTrie, arpTable, natTable);
-        getAndRoutePDUs(router);
+    /**
+     * Route the PDUs from System.in one at a time, in bursts, on forwarding
+     * workers or by ingress interface, with the route cache if it is enabled.
+     * The cache statistics go to System.err so the routes printed are
+     * unchanged.
+     *
+     * @param routers       The routers to route the PDUs, one per forwarding
+     *                      worker.
+     * @param routerFactory Creates the router of each ingress interface, or
+     *                      null if PDUs cannot be routed by interface.
+     */
+    private static void routePDUs(Router[] routers, Supplier<Router> routerFactory) {
+        Router router = routers[0];
+        for (Router worker : routers) {
+            configure(worker);
+        }
+        RouteUpdateFeed feed = null;
+        Thread feedThread = null;
+        if (updatesFile != null) {
+            try {
+                feed = new RouteUpdateFeed(router, new TableReader(updatesFile), routedCount);
+            } catch (java.io.FileNotFoundException e) {
+                System.err.println("ERROR: " + e.getMessage());
+                return;
+            }
+            feedThread = new Thread(feed, "route-updates");
+            // A feed still waiting on its input does not keep the simulation alive.
+            feedThread.setDaemon(true);
+            feedThread.start();
+        }
+        TableReloader reloader = null;
+        Thread reloaderThread = null;
+        if (reloadInterval > 0) {
+            reloader = new TableReloader(router, engine, ROUTES_FILE, ARP_FILE,
+                                         router.hasNAT() ? NAT_FILE : null, reloadInterval);
+            reloaderThread = new Thread(reloader, "table-reload");
+            reloaderThread.setDaemon(true);
+            reloaderThread.start();
+        }
+        // The routes go straight to standard output, after what the tables printed.
+        System.out.flush();
+        writer = new RouteWriter(new FileOutputStream(FileDescriptor.out), binaryOutput,
+                                 System.console() != null);
+        if (pcapFile != null) {
+            replayPcap(router);
+        } else if (ingressThreads > 0) {
+            routers = getAndRoutePDUsByInterface(() -> configure(routerFactory.get()));
+        } else if (routers.length > 1) {
+            getAndRoutePDUsPipelined(routers);
+        } else if (burstSize > 1) {
+            getAndRoutePDUBursts(router, burstSize);
+        } else {
+            getAndRoutePDUs(router);
+        }
+        if (writer.checkError()) {
+            System.err.println("ERROR: Could not write the routes.");
+        }
+        if (feed != null) {
+            feed.stop();
+            feedThread.interrupt();
+            try {
+                feedThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            feed.printStatistics();
+        }
+        if (reloader != null) {
+            reloader.stop();
+            reloaderThread.interrupt();
+        }
+        printStatistics(routers);
     }
 
     /**
-     * Get the PDUs from System.in and route them.
+     * Enable the route cache and flow table of a router, if they are
+     * configured, and defer its ARP misses so the writer reports them with
+     * their routes.
+     *
+     * @param router The router.
+     * @return The router.
+     */
+    private static Router configure(Router router) {
+        router.setDeferArpMisses(true);
+        if (routeCacheSize > 0) {
+            router.enableRouteCache(routeCacheSize);
+        }
+        if (flowTableSize > 0) {
+            router.enableFlowTable(flowTableSize, flowTimeout);
+        }
+        return router;
+    }
+
+    /**
+     * Print the route cache and flow table statistics, summed over the
+     * routers, to System.err.
+     *
+     * @param routers The routers.
+     */
+    private static void printStatistics(Router[] routers) {
+        if (routers.length == 0) {
+            return;
+        }
+        if (routers[0].getRouteCache() != null) {
+            long hits = 0;
+            long misses = 0;
+            long evictions = 0;
+            for (Router router : routers) {
+                RouteCache cache = router.getRouteCache();
+                hits += cache.getHits();
+                misses += cache.getMisses();
+                evictions += cache.getEvictions();
+            }
+            long lookups = hits + misses;
+            System.err.printf("route cache: %d hits, %d misses, %.1f%% hit rate, %d evictions\n",
+                              hits, misses, lookups == 0 ? 0.0 : 100.0 * hits / lookups,
+                              evictions);
+        }
+        if (routers[0].getFlowTable() != null) {
+            long size = 0;
+            long hits = 0;
+            long misses = 0;
+            long expirations = 0;
+            long evictions = 0;
+            for (Router router : routers) {
+                FlowTable flows = router.getFlowTable();
+                size += flows.size();
+                hits += flows.getHits();
+                misses += flows.getMisses();
+                expirations += flows.getExpirations();
+                evictions += flows.getEvictions();
+            }
+            System.err.printf("flow table: %d flows, %d hits, %d misses, %d expired, %d evicted\n",
+                              size, hits, misses, expirations, evictions);
+        }
+    }
+
+    /**
+     * Get the PDUs from System.in and route them. Input is read through a
+     * channel into a reused buffer and parsed in place. Blank lines are
+     * skipped, and malformed lines are skipped and counted, the count going
+     * to System.err; the simulation stops at the first PDU that could not be
+     * routed.
      *
      * @param router The router to route the PDUs.
      */
     private static void getAndRoutePDUs(Router router) {
-        // Read PDUs from System.in, until empty line is found.
-        Scanner sc = new Scanner(System.in);
-        while (sc.hasNextLine()) {
-            try {
-                // Get the next line.
-                String line = sc.nextLine();
-                if (line.length() == 0) {
+        PDUReader reader = new PDUReader(new FileInputStream(FileDescriptor.in).getChannel());
+        MutablePDU parsed = new MutablePDU();
+        try {
+            while (reader.next(parsed)) {
+                IPv4PDU pdu = new IPv4PDU(parsed, reader.getInterfaceName(parsed.getInterfaceId()));
+                try {
+                    // Actually generate the route, and write it.
+                    Route route = router.generateRoute(pdu);
+                    writer.write(route);
+                } catch (Exception e) {
+                    System.err.println("ERROR: Could not create route.");
                     break;
                 }
-                // Try to make PDU, this may fail if, this may fail if line is not properly
-                // formatted.
-                IPv4PDU pdu = new IPv4PDU(line);
-                // Actually generate the route, and print it.
-                Route route = router.generateRoute(pdu);
-                route.print();
-            } catch (Exception e) {
+                // Only this thread writes the count, so an ordered store is enough.
+                routedCount.lazySet(routedCount.get() + 1);
+            }
+        } catch (IOException e) {
+            System.err.println("ERROR: " + e.getMessage());
+        }
+        printSkippedLines(reader.getMalformedLines(), reader.getLines());
+    }
+
+    /**
+     * Route every IPv4 packet of the capture file, in place in a mapping of
+     * the file. Routes are not printed; instead the packets and bytes per
+     * second and the number of each forwarding decision go to System.err.
+     * Packets that are not IPv4 are skipped, and a packet without a route
+     * does not stop the replay.
+     *
+     * @param router The router to route the packets.
+     */
+    private static void replayPcap(Router router) {
+        DecisionCounter decisions = new DecisionCounter();
+        WirePDU pdu = new WirePDU();
+        long packets = 0;
+        long bytes = 0;
+        PcapReader reader;
+        try {
+            reader = new PcapReader(pcapFile);
+        } catch (java.nio.file.NoSuchFileException e) {
+            System.err.println("ERROR: " + pcapFile + " (No such file or directory)");
+            return;
+        } catch (IOException e) {
+            System.err.println("ERROR: " + e.getMessage());
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            while (reader.next()) {
+                packets++;
+                bytes += reader.getOriginalLength();
+                if (!reader.read(pdu, PCAP_INTERFACE)) {
+                    decisions.countSkipped();
+                    continue;
+                }
+                // NAT replaces the addresses it rewrites.
+                IPv4Address source = pdu.getSourceAddress();
+                IPv4Address destination = pdu.getDestinationAddress();
+                int sourcePort = pdu.getSourcePortNumber();
+                int destinationPort = pdu.getDestinationPortNumber();
+                Route route;
+                try {
+                    route = router.generateRoute(pdu);
+                } catch (Exception e) {
+                    route = null;
+                }
+                decisions.count(route, pdu.getSourceAddress() != source
+                                               || pdu.getDestinationAddress() != destination
+                                               || pdu.getSourcePortNumber() != sourcePort
+                                               || pdu.getDestinationPortNumber()
+                                                          != destinationPort);
+                routedCount.lazySet(routedCount.get() + 1);
+            }
+        } catch (IOException e) {
+            System.err.println("ERROR: " + e.getMessage());
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                System.err.println("ERROR: " + e.getMessage());
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("pcap replay: %d packets, %d bytes in %.3f s, %.0f packets/s, " +
+                                  "%.1f MB/s\n", packets, bytes, seconds, packets / seconds,
+                          bytes / seconds / 1e6);
+        decisions.print();
+    }
+
+    /**
+     * Get the PDUs from System.in and route them on a pipeline of parser
+     * threads, one forwarding worker per router and an output thread. The
+     * routes are printed in order, blank and malformed lines are skipped as
+     * getAndRoutePDUs skips them, and the simulation stops at the first PDU
+     * that could not be routed.
+     *
+     * @param routers The routers, one per forwarding worker.
+     */
+    private static void getAndRoutePDUsPipelined(Router[] routers) {
+        RouteHandler printer = route -> {
+            if (route == null) {
+                return false;
+            }
+            writer.write(route);
+            routedCount.lazySet(routedCount.get() + 1);
+            return true;
+        };
+        BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
+        ForwardingPipeline pipeline = new ForwardingPipeline(routers, parsers);
+        try {
+            if (!pipeline.run(input, printer)) {
                 System.err.println("ERROR: Could not create route.");
-                break;
             }
+            printSkippedLines(pipeline.getMalformedLines(), pipeline.getLines());
+        } catch (java.io.IOException e) {
+            System.err.println("ERROR: " + e.getMessage());
+        } catch (InterruptedException e) {
+            System.err.println("ERROR: interrupted");
         }
-        sc.close();
     }
 
+    /**
+     * Get the PDUs from System.in, queue them by the interface they were
+     * received on, and route the queues on a pool of threads. Input is read
+     * as getAndRoutePDUs reads it. The routes are printed in order, skipping
+     * PDUs dropped from a full queue, and the packets, drops and queue depths
+     * of each interface go to System.err.
+     *
+     * @param routerFactory Creates the router of each interface.
+     * @return The routers of the interfaces.
+     */
+    private static Router[] getAndRoutePDUsByInterface(Supplier<Router> routerFactory) {
+        RouteHandler printer = route -> {
+            if (route == null) {
+                return false;
+            }
+            writer.write(route);
+            routedCount.lazySet(routedCount.get() + 1);
+            return true;
+        };
+        IngressScheduler scheduler = new IngressScheduler(routerFactory, ingressThreads,
+                                                          ingressQueueSize);
+        PDUReader input = new PDUReader(new FileInputStream(FileDescriptor.in).getChannel());
+        try {
+            if (!scheduler.run(input, printer)) {
+                System.err.println("ERROR: Could not create route.");
+            }
+            printSkippedLines(scheduler.getMalformedLines(), scheduler.getLines());
+        } catch (java.io.IOException e) {
+            System.err.println("ERROR: " + e.getMessage());
+        } catch (InterruptedException e) {
+            System.err.println("ERROR: interrupted");
+        }
+        List<IngressInterface> interfaces = scheduler.getInterfaces();
+        Router[] routers = new Router[interfaces.size()];
+        for (int i = 0; i < routers.length; ++i) {
+            IngressInterface ingress = interfaces.get(i);
+            System.err.printf("interface %s: %d packets, %d drops, queue depth mean %.1f, " +
+                                      "max %d\n", ingress.getName(), ingress.getPackets(),
+                              ingress.getDrops(), ingress.getMeanQueueDepth(),
+                              ingress.getMaxQueueDepth());
+            routers[i] = ingress.getRouter();
+        }
+        return routers;
+    }
+
+    /**
+     * Get the PDUs from System.in and route them in bursts. Input is read as
+     * getAndRoutePDUs reads it, and the output is the same as routing the
+     * PDUs one at a time: the routes are printed in order, blank and
+     * malformed lines are skipped, and the simulation stops at the first PDU
+     * that could not be routed.
+     *
+     * @param router    The router to route the PDUs.
+     * @param burstSize The largest number of PDUs routed together.
+     */
+    private static void getAndRoutePDUBursts(Router router, int burstSize) {
+        IPv4PDU[] pdus = new IPv4PDU[burstSize];
+        // The lines and malformed lines read up to each PDU of the burst.
+        long[] lines = new long[burstSize];
+        long[] malformedLines = new long[burstSize];
+        int[] handled = new int[1];
+        // Print each route, stopping the burst at the first PDU without one.
+        RouteHandler printer = route -> {
+            if (route == null) {
+                return false;
+            }
+            writer.write(route);
+            handled[0]++;
+            routedCount.lazySet(routedCount.get() + 1);
+            return true;
+        };
+        PDUReader reader = new PDUReader(new FileInputStream(FileDescriptor.in).getChannel());
+        MutablePDU parsed = new MutablePDU();
+        try {
+            boolean done = false;
+            while (!done) {
+                int count = 0;
+                while (count < burstSize && reader.next(parsed)) {
+                    pdus[count] = new IPv4PDU(parsed,
+                                              reader.getInterfaceName(parsed.getInterfaceId()));
+                    lines[count] = reader.getLines();
+                    malformedLines[count] = reader.getMalformedLines();
+                    count++;
+                }
+                done = count < burstSize;
+                if (count == 0) {
+                    printSkippedLines(reader.getMalformedLines(), reader.getLines());
+                    return;
+                }
+                handled[0] = 0;
+                try {
+                    router.generateRoutes(pdus, count, printer);
+                } catch (Exception e) {
+                    // Counted as the PDU the burst stopped at.
+                }
+                if (handled[0] < count) {
+                    System.err.println("ERROR: Could not create route.");
+                    // Count the lines as far as the PDU that stopped the simulation.
+                    printSkippedLines(malformedLines[handled[0]], lines[handled[0]]);
+                    return;
+                }
+            }
+            printSkippedLines(reader.getMalformedLines(), reader.getLines());
+        } catch (IOException e) {
+            System.err.println("ERROR: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Print the number of malformed lines skipped to System.err, if any were.
+     *
+     * @param malformedLines The number of malformed lines skipped.
+     * @param lines          The number of lines read, blank lines excepted.
+     */
+    private static void printSkippedLines(long malformedLines, long lines) {
+        if (malformedLines > 0) {
+            System.err.printf("skipped %d malformed lines of %d\n", malformedLines, lines);
+        }
+    }
 }
@@ -0,0 +1,81 @@
+package src.address;
+
+/**
+ * Interns addresses by their bits, so an address that appears again and again,
+ * such as the gateway of thousands of routes, is one shared instance rather
+ * than one per appearance, and formats its a.b.c.d string at most once.
+ * <p>
+ * The addresses are kept in an open addressed table keyed on their bits. A
+ * pool is not thread safe; fill it on one thread, such as while reading a
+ * table.
+ *
+ * @param <T> The type of address pooled, such as GatewayAddress.
+ * @author silval
+ * @see IPv4Address
+ */
+public class AddressPool<T extends IPv4Address> {
+    private IPv4Address[] addresses = new IPv4Address[64];
+    private int size;
+
+    /**
+     * Get the pooled address with the same bits as the given one, pooling the
+     * given one if there is none.
+     *
+     * @param address The address.
+     * @return The pooled address, which may be the given one.
+     */
+    @SuppressWarnings("unchecked")
+    public T intern(T address) {
+        int mask = this.addresses.length - 1;
+        int bucket = hash(address.getBits()) & mask;
+        for (; this.addresses[bucket] != null; bucket = (bucket + 1) & mask) {
+            if (this.addresses[bucket].getBits() == address.getBits()) {
+                return (T) this.addresses[bucket];
+            }
+        }
+        this.addresses[bucket] = address;
+        if (++this.size * 2 > this.addresses.length) {
+            this.grow();
+        }
+        return address;
+    }
+
+    /**
+     * Get the number of distinct addresses in the pool.
+     *
+     * @return The pool size.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Double the table, which is kept at most half full.
+     */
+    private void grow() {
+        IPv4Address[] addresses = new IPv4Address[this.addresses.length * 2];
+        int mask = addresses.length - 1;
+        for (IPv4Address address : this.addresses) {
+            if (address != null) {
+                int bucket = hash(address.getBits()) & mask;
+                while (addresses[bucket] != null) {
+                    bucket = (bucket + 1) & mask;
+                }
+                addresses[bucket] = address;
+            }
+        }
+        this.addresses = addresses;
+    }
+
+    /**
+     * Spread address bits over the table, since addresses in a network share
+     * their high bits.
+     *
+     * @param bits The address bits.
+     * @return The hash.
+     */
+    private static int hash(int bits) {
+        int hash = bits * 0x9E3779B9;
+        return hash ^ hash >>> 16;
+    }
+}
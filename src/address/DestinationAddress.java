@@ -19,19 +19,31 @@ public class DestinationAddress extends IPv4Address {
      * @throws UnknownHostException If IPv4 address is not valid.
      */
     public DestinationAddress(String ipAddress) throws UnknownHostException {
-        super(ipAddress.split("/")[0]);
-        String[] parts = ipAddress.split("/");
+        super(addressPart(ipAddress));
+        int slash = ipAddress.indexOf('/');
         // Make sure address has prefix length associated with it.
-        if (parts.length != 2) {
+        if (slash < 0 || slash == ipAddress.length() - 1
+                    || ipAddress.indexOf('/', slash + 1) >= 0) {
             throw new UnknownHostException(ipAddress + " is not valid. Missing prefix length");
         }
         // Set the prefix length.
-        prefixLength = Integer.parseInt(parts[1]);
+        prefixLength = Integer.parseInt(ipAddress.substring(slash + 1));
         if (prefixLength < 0 || prefixLength > 32) {
             throw new UnknownHostException(ipAddress + " is not valid. Invalid prefix length");
         }
     }
 
+    /**
+     * Get the address part of an address in a.b.c.d/x format.
+     *
+     * @param ipAddress The address and prefix length.
+     * @return The address before the slash, or all of it if there is none.
+     */
+    private static String addressPart(String ipAddress) {
+        int slash = ipAddress.indexOf('/');
+        return slash < 0 ? ipAddress : ipAddress.substring(0, slash);
+    }
+
     /**
      * Gets the prefix length.
      *
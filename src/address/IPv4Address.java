@@ -4,16 +4,20 @@ import java.net.UnknownHostException;
 
 /**
  * Represents an IPv4 address.
+ * <p>
+ * The address is held as its 32 bits in an int, with the first octet in the
+ * most significant byte. The a.b.c.d string is only built the first time it
+ * is asked for, so addresses that are only compared and looked up never
+ * format one.
  *
  * @author silval
+ * @see AddressPool
  */
 public class IPv4Address {
-    // The address in a.b.c.d string notation.
+    // The address bits.
+    private final int bits;
+    // The address in a.b.c.d string notation, built when first needed.
     private String strAddress;
-    // The address as an integer.
-    private long intAddress;
-    // The address as bits, used for debugging.
-    // private String bitAddress;
 
     /**
      * The constructor for an IPv4 address.
@@ -22,41 +26,85 @@ public class IPv4Address {
      * @throws UnknownHostException If the IPv4 address is not valid.
      */
     public IPv4Address(String ipAddress) throws UnknownHostException {
-        if (!this.validIP_(ipAddress)) {
-            throw new UnknownHostException(ipAddress + " is not valid");
-        }
-        this.strAddress = ipAddress;
-        this.intAddress = this.convertToInt_(ipAddress);
-        // this.bitAddress = this.convertToBit_();
+        this.bits = parse(ipAddress);
     }
 
     /**
-     * Converts an a.b.c.d address to an integer(long).
+     * The constructor for an IPv4 address from its bits.
      *
-     * @param addr The string representation of an IPv4 address to be converted.
-     * @return The integer(long) representation of the address.
+     * @param bits The address bits, first octet in the most significant byte.
      */
-    private long convertToInt_(String addr) {
-        String[] addrArray = addr.split("\\.");
-        long num = 0;
-        for (int i = 0; i < addrArray.length; i++) {
-            int power = 3 - i;
-            num += ((Integer.parseInt(addrArray[i]) % 256 * Math.pow(256, power)));
+    public IPv4Address(int bits) {
+        this.bits = bits;
+    }
+
+    /**
+     * Converts an a.b.c.d address to its bits in a single pass, checking that
+     * it has four parts from 0 to 255.
+     *
+     * @param ipAddress The address to be converted.
+     * @return The address bits.
+     * @throws UnknownHostException If the address is not valid.
+     */
+    public static int parse(String ipAddress) throws UnknownHostException {
+        if (ipAddress == null || ipAddress.isEmpty()) {
+            throw new UnknownHostException(ipAddress + " is not valid");
+        }
+        int bits = 0;
+        int parts = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = 0; i < ipAddress.length(); ++i) {
+            char c = ipAddress.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                digits++;
+                if (value > 255) {
+                    throw new UnknownHostException(ipAddress + " is not valid");
+                }
+            } else if (c == '.' && digits > 0 && parts < 3) {
+                bits = bits << 8 | value;
+                parts++;
+                value = 0;
+                digits = 0;
+            } else {
+                throw new UnknownHostException(ipAddress + " is not valid");
+            }
         }
-        if (num < 0) {
-            System.err.println("ERROR: Could not convert ip to long");
-            return 0;
+        // Make sure it is in a.b.c.d notation, and does not end with a period.
+        if (parts != 3 || digits == 0) {
+            throw new UnknownHostException(ipAddress + " is not valid");
         }
-        return num;
+        return bits << 8 | value;
+    }
+
+    /**
+     * Formats address bits in a.b.c.d notation.
+     *
+     * @param bits The address bits.
+     * @return The string IPv4 address.
+     */
+    public static String format(int bits) {
+        return (bits >>> 24) + "." + (bits >>> 16 & 0xff) + "." + (bits >>> 8 & 0xff) + "."
+                       + (bits & 0xff);
     }
 
     /**
      * Gets the address as an integer.
      *
-     * @return The integer(long) IPv4 address.
+     * @return The integer(long) IPv4 address, from 0 to 2^32 - 1.
      */
     public long getAddress() {
-        return this.intAddress;
+        return this.bits & 0xffffffffL;
+    }
+
+    /**
+     * Gets the address bits, first octet in the most significant byte.
+     *
+     * @return The address as an int.
+     */
+    public int getBits() {
+        return this.bits;
     }
 
     /**
@@ -65,7 +113,13 @@ public class IPv4Address {
      * @return The string IPv4 address.
      */
     public String getAddressString() {
-        return this.strAddress;
+        String strAddress = this.strAddress;
+        if (strAddress == null) {
+            // Racing threads build equal strings, so either may be kept.
+            strAddress = format(this.bits);
+            this.strAddress = strAddress;
+        }
+        return strAddress;
     }
 
     /**
@@ -75,45 +129,6 @@ public class IPv4Address {
      * @return either 0 or 1
      */
     public int getBitAtPosition(int position) {
-        if (position < 0 || position > 31) {
-            System.err.println("ERROR: Bit position out of range.");
-            return 0;
-        }
-        return (int) (this.getAddress() & (1 << (31 - position)));
-    }
-
-    /**
-     * Validates an IPv4 address in a.b.c.d format.
-     *
-     * @param ipAddress The address to be validated.
-     * @return true if address is valid, false otherwise.
-     */
-    private boolean validIP_(String ipAddress) {
-        try {
-            // Check to make sure the address is not empty.
-            if (ipAddress == null || ipAddress.isEmpty()) {
-                return false;
-            }
-            String[] parts = ipAddress.split("\\.");
-            // Make sure it is in a.b.c.d notation.
-            if (parts.length != 4) {
-                return false;
-            }
-            // Make sure each part is between 0 and 255
-            for (String s : parts) {
-                int i = Integer.parseInt(s);
-                if ((i < 0) || (i > 255)) {
-                    return false;
-                }
-            }
-            // The address cannot end with a period.
-            if (ipAddress.endsWith(".")) {
-                return false;
-            }
-            // If all the statements above passed, then this is a valid address.
-            return true;
-        } catch (NumberFormatException nfe) {
-            return false;
-        }
+        return this.bits >>> (31 - position) & 1;
     }
 }
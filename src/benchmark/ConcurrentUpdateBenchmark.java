@@ -0,0 +1,226 @@
+package src.benchmark;
+
+import src.address.GatewayAddress;
+import src.binarysearchtrie.BinarySearchTrie;
+import src.tables.RoutingTable;
+import src.tables.RoutingTableEntry;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Stresses the copy on write BinarySearchTrie with many reader threads
+ * looking up routes while one updater thread inserts and withdraws routes,
+ * and reports the reader throughput with and without the updates.
+ * <p>
+ * The updater only changes churn routes, which are not in the table and all
+ * use their own gateway. So every lookup must give either the gateway the
+ * table alone gives, or the churn gateway. Anything else, including no route,
+ * means a reader saw a torn or corrupted trie, and is counted as a violation.
+ * <p>
+ * usage: java src.benchmark.ConcurrentUpdateBenchmark [-prefixes n] [-readers n]
+ * [-seconds n]
+ *
+ * @author silval
+ */
+public class ConcurrentUpdateBenchmark {
+
+    private static final int DEFAULT_PREFIXES = 100000;
+    private static final int DEFAULT_SECONDS = 3;
+    private static final int DESTINATIONS = 1 << 16;
+    private static final int CHURN_ROUTES = 10000;
+    private static final String CHURN_GATEWAY = "10.255.255.1";
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args The command line arguments.
+     */
+    public static void main(String[] args) {
+        int prefixes = DEFAULT_PREFIXES;
+        int readers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        int seconds = DEFAULT_SECONDS;
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                if (args[i].equals("-prefixes")) {
+                    prefixes = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-readers")) {
+                    readers = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-seconds")) {
+                    seconds = Integer.parseInt(args[++i]);
+                } else {
+                    throw new IllegalArgumentException(args[i]);
+                }
+            }
+            if (readers < 1 || seconds < 1) {
+                throw new IllegalArgumentException();
+            }
+        } catch (RuntimeException e) {
+            System.err.println("ERROR: invalid command line argument(s)");
+            System.err.println("usage: [-prefixes n] [-readers n] [-seconds n]");
+            return;
+        }
+
+        BinarySearchTrie trie;
+        ArrayList<RoutingTableEntry> churn = new ArrayList<RoutingTableEntry>();
+        int[] destinations;
+        long[] expected;
+        long churnGateway;
+        try {
+            SyntheticRoutes generator = new SyntheticRoutes(4220);
+            RoutingTable table = generator.generateTable(prefixes);
+            HashSet<String> existing = new HashSet<String>();
+            for (int row = 0; row < table.size(); ++row) {
+                existing.add(table.getEntry(row).getDestinationAddress().getAddressString() + "/"
+                                     + table.getEntry(row).getDestinationAddress()
+                                               .getPrefixLength());
+            }
+            RoutingTable churnTable = new RoutingTable();
+            while (churn.size() < CHURN_ROUTES) {
+                RoutingTableEntry entry = generator.generateEntry();
+                String prefix = entry.getDestinationAddress().getAddressString() + "/"
+                                        + entry.getDestinationAddress().getPrefixLength();
+                if (existing.add(prefix)) {
+                    entry = new RoutingTableEntry(prefix + " " + CHURN_GATEWAY + " eth0");
+                    churn.add(entry);
+                    churnTable.addEntry(entry);
+                }
+            }
+            churnGateway = churn.get(0).getGatewayAddress().getAddress();
+
+            trie = new BinarySearchTrie(table);
+            // Half the destinations fall under churn routes, half anywhere in the table.
+            int[] inTable = generator.generateDestinations(table, DESTINATIONS / 2);
+            int[] inChurn = generator.generateDestinations(churnTable, DESTINATIONS / 2);
+            destinations = new int[DESTINATIONS];
+            System.arraycopy(inTable, 0, destinations, 0, inTable.length);
+            System.arraycopy(inChurn, 0, destinations, inTable.length, inChurn.length);
+            expected = new long[DESTINATIONS];
+            for (int i = 0; i < DESTINATIONS; ++i) {
+                expected[i] = gatewayOf(trie, destinations[i]);
+            }
+        } catch (Exception e) {
+            System.err.println("ERROR: " + e.getMessage());
+            return;
+        }
+
+        System.out.printf("%d prefixes, %d churn routes, %d readers, %d s per phase\n",
+                          trie.getRoutingTable().size(), churn.size(), readers, seconds);
+        System.out.printf("%-14s %14s %14s %12s %12s\n", "phase", "M lookups/s",
+                          "per reader", "updates/s", "violations");
+        try {
+            runPhase("readers only", trie, destinations, expected, churnGateway, readers,
+                     seconds, null);
+            runPhase("with updates", trie, destinations, expected, churnGateway, readers,
+                     seconds, churn);
+        } catch (InterruptedException e) {
+            System.err.println("ERROR: interrupted");
+        }
+    }
+
+    /**
+     * Run the readers, and the updater if there are churn routes, for a while
+     * and print their throughput.
+     *
+     * @param name         The phase name.
+     * @param trie         The trie.
+     * @param destinations The destinations the readers look up.
+     * @param expected     The gateway the table alone gives each destination.
+     * @param churnGateway The gateway of the churn routes.
+     * @param readers      The number of reader threads.
+     * @param seconds      How long to run.
+     * @param churn        The routes the updater inserts and withdraws, or
+     *                     null for no updater.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private static void runPhase(String name, BinarySearchTrie trie, int[] destinations,
+                                 long[] expected, long churnGateway, int readers, int seconds,
+                                 ArrayList<RoutingTableEntry> churn)
+            throws InterruptedException {
+        long[] lookups = new long[readers];
+        long[] violations = new long[readers];
+        long[] updates = new long[1];
+        AtomicBoolean stop = new AtomicBoolean();
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int r = 0; r < readers; ++r) {
+            int reader = r;
+            threads.add(new Thread(() -> {
+                long count = 0;
+                long bad = 0;
+                int i = reader * 7919;
+                while (!stop.get()) {
+                    for (int n = 0; n < 1024; ++n) {
+                        i = (i + 1) & (destinations.length - 1);
+                        long gateway = gatewayOf(trie, destinations[i]);
+                        if (gateway != expected[i] && gateway != churnGateway) {
+                            bad++;
+                        }
+                    }
+                    count += 1024;
+                }
+                lookups[reader] = count;
+                violations[reader] = bad;
+            }));
+        }
+        if (churn != null) {
+            threads.add(new Thread(() -> {
+                Random random = new Random(17);
+                boolean[] installed = new boolean[churn.size()];
+                long count = 0;
+                while (!stop.get()) {
+                    int route = random.nextInt(churn.size());
+                    RoutingTableEntry entry = churn.get(route);
+                    if (installed[route]) {
+                        trie.withdraw(entry.getDestinationAddress());
+                    } else {
+                        trie.insert(entry.getDestinationAddress(), entry);
+                    }
+                    installed[route] = !installed[route];
+                    count++;
+                }
+                // Leave the trie as the table alone for the next run.
+                for (int route = 0; route < churn.size(); ++route) {
+                    if (installed[route]) {
+                        trie.withdraw(churn.get(route).getDestinationAddress());
+                    }
+                }
+                updates[0] = count;
+            }));
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(seconds * 1000L);
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        long totalLookups = 0;
+        long totalViolations = 0;
+        for (int r = 0; r < readers; ++r) {
+            totalLookups += lookups[r];
+            totalViolations += violations[r];
+        }
+        System.out.printf("%-14s %14.2f %14.2f %12.0f %12d\n", name,
+                          totalLookups / elapsed / 1e6, totalLookups / elapsed / 1e6 / readers,
+                          updates[0] / elapsed, totalViolations);
+    }
+
+    /**
+     * Lookup the gateway of a destination.
+     *
+     * @param trie    The trie.
+     * @param address The destination address bits.
+     * @return The gateway address bits, or -1 if there is no route.
+     */
+    private static long gatewayOf(BinarySearchTrie trie, int address) {
+        GatewayAddress gateway = trie.getNextHops().getGateway(trie.lookupNextHop(address));
+        return gateway == null ? -1 : gateway.getAddress();
+    }
+}
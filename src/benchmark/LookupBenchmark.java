@@ -0,0 +1,352 @@
+package src.benchmark;
+
+import src.address.GatewayAddress;
+import src.address.IPv4Address;
+import src.binarysearchtrie.LongestPrefixMatcher;
+import src.binarysearchtrie.LookupEngine;
+import src.binarysearchtrie.MultibitTrie;
+import src.tables.RoutingTable;
+import src.tables.TableReader;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Compares the memory use and lookup latency of the route lookup engines. Every
+ * engine is built from the same table and looks up the same destinations, and
+ * its results are checked against the BinarySearchTrie. Garbage collector
+ * pressure is reported as the bytes allocated and collections run while
+ * building.
+ * <p>
+ * With -strides, the multibit trie is instead built once per stride
+ * configuration (such as 16-8-8,8-8-8-8, or "all" for a standard set) and the
+ * memory and depth of each is printed.
+ * <p>
+ * With -bursts, every engine instead looks up the destinations in bursts of
+ * each given size (such as 32,256, or "all" for 32 to 256) through the batch
+ * lookup, and its latency is compared with looking them up one at a time.
+ * <p>
+ * usage: java src.benchmark.LookupBenchmark [-routes file | -prefixes n] [-lookups n]
+ * [-strides configs | -bursts sizes]
+ *
+ * @author silval
+ */
+public class LookupBenchmark {
+
+    private static final int DEFAULT_PREFIXES = 500000;
+    private static final int DEFAULT_LOOKUPS = 1 << 20;
+    private static final int TIMED_PASSES = 5;
+    private static final String ALL_STRIDES = "8-8-8-8,16-8-8,16-4-4-8,24-8,20-4-8,12-4-4-4-4-4";
+    private static final String ALL_BURSTS = "32,64,128,256";
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args The command line arguments.
+     */
+    public static void main(String[] args) {
+        String routesFile = null;
+        int prefixes = DEFAULT_PREFIXES;
+        int lookups = DEFAULT_LOOKUPS;
+        String strides = null;
+        String bursts = null;
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                if (args[i].equals("-routes")) {
+                    routesFile = args[++i];
+                } else if (args[i].equals("-prefixes")) {
+                    prefixes = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-lookups")) {
+                    lookups = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-strides")) {
+                    strides = args[++i].equals("all") ? ALL_STRIDES : args[i];
+                } else if (args[i].equals("-bursts")) {
+                    bursts = args[++i].equals("all") ? ALL_BURSTS : args[i];
+                } else {
+                    throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("ERROR: invalid command line argument(s)");
+            System.err.println("usage: [-routes file | -prefixes n] [-lookups n] "
+                                       + "[-strides configs | -bursts sizes]");
+            return;
+        }
+
+        RoutingTable table;
+        int[] addresses;
+        IPv4Address[] destinations;
+        try {
+            SyntheticRoutes generator = new SyntheticRoutes(4220);
+            if (routesFile != null) {
+                TableReader reader = new TableReader(routesFile);
+                table = reader.constructRoutingTable();
+                reader.close();
+            } else {
+                table = generator.generateTable(prefixes);
+            }
+            addresses = generator.generateDestinations(table, lookups);
+            destinations = SyntheticRoutes.toAddresses(addresses);
+        } catch (Exception e) {
+            System.err.println("ERROR: " + e.getMessage());
+            return;
+        }
+
+        if (strides != null) {
+            try {
+                runStrides(strides.split(","), table, addresses);
+            } catch (IllegalArgumentException e) {
+                System.err.println("ERROR: " + e.getMessage());
+            }
+            return;
+        }
+        if (bursts != null) {
+            int[] sizes;
+            try {
+                String[] values = bursts.split(",");
+                sizes = new int[values.length];
+                for (int i = 0; i < values.length; ++i) {
+                    sizes[i] = Integer.parseInt(values[i]);
+                    if (sizes[i] < 1) {
+                        throw new NumberFormatException(values[i]);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("ERROR: invalid burst size " + e.getMessage());
+                return;
+            }
+            runBursts(sizes, table, addresses);
+            return;
+        }
+
+        System.out.printf("%d prefixes, %d lookups per pass\n", table.size(), destinations.length);
+        System.out.printf("%-16s %10s %14s %10s %14s %12s %12s %10s\n", "engine", "build ms",
+                          "build alloc MB", "build gcs", "bytes/prefix", "ns/lookup",
+                          "M lookups/s", "check");
+        Long reference = null;
+        for (LookupEngine engine : LookupEngine.values()) {
+            if (engine == LookupEngine.ADAPTIVE) {
+                continue;
+            }
+            long checksum = run(engine, table, destinations);
+            if (reference == null) {
+                reference = checksum;
+            }
+            System.out.printf(" %10s\n", checksum == reference ? "ok" : "MISMATCH");
+        }
+    }
+
+    /**
+     * Build and time one engine, printing everything but the check column.
+     *
+     * @param engine       The engine.
+     * @param table        The routing table.
+     * @param destinations The destinations to look up.
+     * @return A checksum of the lookup results.
+     */
+    private static long run(LookupEngine engine, RoutingTable table, IPv4Address[] destinations) {
+        long heapBefore = usedHeap();
+        long allocatedBefore = allocatedBytes();
+        long collectionsBefore = collectionCount();
+        long start = System.nanoTime();
+        LongestPrefixMatcher matcher = engine.create(table);
+        long buildNanos = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+        long collections = collectionCount() - collectionsBefore;
+        long heapAfter = usedHeap();
+
+        // One untimed pass to warm up, then take the best of the timed passes.
+        long checksum = lookupAll(matcher, destinations);
+        long bestNanos = Long.MAX_VALUE;
+        for (int pass = 0; pass < TIMED_PASSES; ++pass) {
+            start = System.nanoTime();
+            lookupAll(matcher, destinations);
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+        }
+        System.out.printf("%-16s %10d %14.1f %10d %14.1f %12.1f %12.2f", engine.getName(),
+                          buildNanos / 1000000, allocated / 1048576.0, collections,
+                          (double) (heapAfter - heapBefore) / table.size(),
+                          (double) bestNanos / destinations.length,
+                          destinations.length * 1000.0 / bestNanos);
+        return checksum;
+    }
+
+    /**
+     * Build a multibit trie for each stride configuration and print its memory
+     * use, depth and lookup latency.
+     *
+     * @param configs   The stride configurations, such as 16-8-8.
+     * @param table     The routing table.
+     * @param addresses The destinations to look up.
+     * @throws IllegalArgumentException If a configuration is not valid.
+     */
+    private static void runStrides(String[] configs, RoutingTable table, int[] addresses) {
+        System.out.printf("%-16s %-24s %10s %14s %10s %10s %12s\n", "strides", "nodes per level",
+                          "MB", "bytes/prefix", "max depth", "avg depth", "ns/lookup");
+        for (String config : configs) {
+            MultibitTrie trie = new MultibitTrie(table, MultibitTrie.parseStrides(config));
+            StringBuilder nodes = new StringBuilder();
+            for (int level = 0; level < trie.getStrides().length; ++level) {
+                nodes.append(level == 0 ? "" : "/").append(trie.getNodeCount(level));
+            }
+            long depth = 0;
+            for (int address : addresses) {
+                depth += trie.lookupDepth(address);
+            }
+            long bestNanos = Long.MAX_VALUE;
+            for (int pass = 0; pass <= TIMED_PASSES; ++pass) {
+                long start = System.nanoTime();
+                long checksum = 0;
+                for (int address : addresses) {
+                    checksum += trie.lookupNextHop(address);
+                }
+                // The first pass only warms up.
+                if (pass > 0 && checksum != 0) {
+                    bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+                }
+            }
+            System.out.printf("%-16s %-24s %10.1f %14.1f %10d %10.2f %12.1f\n", config, nodes,
+                              trie.getMemoryBytes() / 1048576.0,
+                              (double) trie.getMemoryBytes() / table.size(),
+                              trie.getStrides().length, (double) depth / addresses.length,
+                              (double) bestNanos / addresses.length);
+        }
+    }
+
+    /**
+     * Build every engine and print its lookup latency one destination at a
+     * time and in bursts of each size, checking the burst results against the
+     * single lookups.
+     *
+     * @param sizes     The burst sizes.
+     * @param table     The routing table.
+     * @param addresses The destinations to look up.
+     */
+    private static void runBursts(int[] sizes, RoutingTable table, int[] addresses) {
+        System.out.printf("%d prefixes, %d lookups per pass, ns/lookup\n", table.size(),
+                          addresses.length);
+        System.out.printf("%-16s %10s", "engine", "single");
+        for (int size : sizes) {
+            System.out.printf(" %10s", "burst " + size);
+        }
+        System.out.printf(" %14s %10s\n", "best M/s", "check");
+        for (LookupEngine engine : LookupEngine.values()) {
+            if (engine == LookupEngine.ADAPTIVE) {
+                continue;
+            }
+            LongestPrefixMatcher matcher = engine.create(table);
+            long singleNanos = Long.MAX_VALUE;
+            long checksum = 0;
+            for (int pass = 0; pass <= TIMED_PASSES; ++pass) {
+                long start = System.nanoTime();
+                checksum = 0;
+                for (int address : addresses) {
+                    checksum = checksum * 31 + matcher.lookupNextHop(address);
+                }
+                // The first pass only warms up.
+                if (pass > 0) {
+                    singleNanos = Math.min(singleNanos, System.nanoTime() - start);
+                }
+            }
+            System.out.printf("%-16s %10.1f", engine.getName(),
+                              (double) singleNanos / addresses.length);
+            long bestNanos = singleNanos;
+            boolean match = true;
+            for (int size : sizes) {
+                long burstNanos = Long.MAX_VALUE;
+                for (int pass = 0; pass <= TIMED_PASSES; ++pass) {
+                    long start = System.nanoTime();
+                    long burstChecksum = lookupBursts(matcher, addresses, size);
+                    if (pass > 0) {
+                        burstNanos = Math.min(burstNanos, System.nanoTime() - start);
+                    }
+                    match &= burstChecksum == checksum;
+                }
+                bestNanos = Math.min(bestNanos, burstNanos);
+                System.out.printf(" %10.1f", (double) burstNanos / addresses.length);
+            }
+            System.out.printf(" %14.2f %10s\n", addresses.length * 1000.0 / bestNanos,
+                              match ? "ok" : "MISMATCH");
+        }
+    }
+
+    /**
+     * Look up every destination in bursts through the batch lookup.
+     *
+     * @param matcher   The engine.
+     * @param addresses The destinations.
+     * @param size      The burst size.
+     * @return A checksum of the next hops found, in destination order.
+     */
+    private static long lookupBursts(LongestPrefixMatcher matcher, int[] addresses, int size) {
+        int[] burst = new int[size];
+        int[] nextHops = new int[size];
+        long checksum = 0;
+        for (int offset = 0; offset < addresses.length; offset += size) {
+            int count = Math.min(size, addresses.length - offset);
+            System.arraycopy(addresses, offset, burst, 0, count);
+            matcher.lookupNextHops(burst, nextHops, count);
+            for (int i = 0; i < count; ++i) {
+                checksum = checksum * 31 + nextHops[i];
+            }
+        }
+        return checksum;
+    }
+
+    /**
+     * Look up every destination.
+     *
+     * @param matcher      The engine.
+     * @param destinations The destinations.
+     * @return A checksum of the gateways found.
+     */
+    private static long lookupAll(LongestPrefixMatcher matcher, IPv4Address[] destinations) {
+        long checksum = 0;
+        for (IPv4Address destination : destinations) {
+            GatewayAddress gateway = matcher.lookupGateway(destination);
+            checksum = checksum * 31 + (gateway == null ? -1 : gateway.getAddress());
+        }
+        return checksum;
+    }
+
+    /**
+     * Get the heap in use after collecting garbage.
+     *
+     * @return The used heap in bytes.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Get the bytes allocated so far by this thread.
+     *
+     * @return The allocated bytes, or 0 if the JVM cannot measure it.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads)
+                           .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * Get the number of garbage collections run so far.
+     *
+     * @return The collection count over all collectors.
+     */
+    private static long collectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+}
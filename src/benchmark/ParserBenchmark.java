@@ -0,0 +1,191 @@
+package src.benchmark;
+
+import src.pdu.IPv4PDU;
+import src.pdu.MutablePDU;
+import src.pdu.PDUParser;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Compares parsing PDU lines into IPv4PDU objects with parsing them into a
+ * reused MutablePDU with the PDUParser, from Strings and from a byte buffer.
+ * For each, the time per PDU and the bytes allocated per PDU once warmed up
+ * are printed; the PDUParser should allocate nothing. The PDUParser results
+ * are first checked against IPv4PDU.
+ * <p>
+ * usage: java src.benchmark.ParserBenchmark [-pdus n] [-interfaces n]
+ *
+ * @author silval
+ */
+public class ParserBenchmark {
+
+    private static final int DEFAULT_PDUS = 1 << 18;
+    private static final int DEFAULT_INTERFACES = 4;
+    private static final int WARMUP_PASSES = 5;
+    private static final int TIMED_PASSES = 5;
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args The command line arguments.
+     */
+    public static void main(String[] args) {
+        int count = DEFAULT_PDUS;
+        int interfaces = DEFAULT_INTERFACES;
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                if (args[i].equals("-pdus")) {
+                    count = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-interfaces")) {
+                    interfaces = Integer.parseInt(args[++i]);
+                } else {
+                    throw new IllegalArgumentException(args[i]);
+                }
+            }
+            if (count < 1 || interfaces < 1) {
+                throw new IllegalArgumentException();
+            }
+        } catch (RuntimeException e) {
+            System.err.println("ERROR: invalid command line argument(s)");
+            System.err.println("usage: [-pdus n] [-interfaces n]");
+            return;
+        }
+
+        String[] lines = generateLines(count, interfaces);
+        // The same lines, one after another in a byte buffer.
+        int[] offsets = new int[count];
+        int[] lengths = new int[count];
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < count; ++i) {
+            offsets[i] = joined.length();
+            lengths[i] = lines[i].length();
+            joined.append(lines[i]).append('\n');
+        }
+        byte[] bytes = joined.toString().getBytes(StandardCharsets.US_ASCII);
+
+        int mismatches = check(lines);
+        System.out.printf("%d pdus on %d interfaces, %d mismatches against IPv4PDU\n", count,
+                          interfaces, mismatches);
+        System.out.printf("%-20s %12s %12s %14s\n", "parser", "ns/pdu", "M pdus/s",
+                          "bytes/pdu");
+
+        long checksum = 0;
+        for (int mode = 0; mode < 3; ++mode) {
+            PDUParser parser = new PDUParser();
+            MutablePDU pdu = new MutablePDU();
+            for (int pass = 0; pass < WARMUP_PASSES; ++pass) {
+                checksum += parseAll(mode, lines, bytes, offsets, lengths, parser, pdu);
+            }
+            long bestNanos = Long.MAX_VALUE;
+            long allocatedBefore = allocatedBytes();
+            for (int pass = 0; pass < TIMED_PASSES; ++pass) {
+                long start = System.nanoTime();
+                checksum += parseAll(mode, lines, bytes, offsets, lengths, parser, pdu);
+                bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+            }
+            long allocated = allocatedBytes() - allocatedBefore;
+            System.out.printf("%-20s %12.1f %12.2f %14.1f\n",
+                              mode == 0 ? "IPv4PDU(String)"
+                                      : mode == 1 ? "PDUParser chars" : "PDUParser bytes",
+                              (double) bestNanos / count, count * 1000.0 / bestNanos,
+                              (double) allocated / TIMED_PASSES / count);
+        }
+        System.out.printf("checksum %d\n", checksum);
+    }
+
+    /**
+     * Generate random PDU lines.
+     *
+     * @param count      The number of lines.
+     * @param interfaces The number of ingress interfaces.
+     * @return The lines.
+     */
+    private static String[] generateLines(int count, int interfaces) {
+        Random random = new Random(4220);
+        String[] lines = new String[count];
+        for (int i = 0; i < count; ++i) {
+            lines[i] = "eth" + random.nextInt(interfaces) + " "
+                               + SyntheticRoutes.toDottedQuad(random.nextInt()) + " "
+                               + SyntheticRoutes.toDottedQuad(random.nextInt()) + " "
+                               + (random.nextBoolean() ? 6 : 17) + " " + (1 + random.nextInt(255))
+                               + " " + random.nextInt(65536) + " " + random.nextInt(65536);
+        }
+        return lines;
+    }
+
+    /**
+     * Count the lines the PDUParser reads differently from IPv4PDU.
+     *
+     * @param lines The lines.
+     * @return The number of mismatches.
+     */
+    private static int check(String[] lines) {
+        PDUParser parser = new PDUParser();
+        MutablePDU pdu = new MutablePDU();
+        int mismatches = 0;
+        for (String line : lines) {
+            IPv4PDU expected = new IPv4PDU(line);
+            if (!parser.parse(line, pdu)
+                        || !parser.getInterfaceName(pdu.getInterfaceId())
+                                  .equals(expected.getInterfaceType())
+                        || pdu.getSourceAddress() != expected.getSourceAddress().getBits()
+                        || pdu.getDestinationAddress()
+                                   != expected.getDestinationAddress().getBits()
+                        || pdu.getProtocolNumber() != expected.getProtocolNumber()
+                        || pdu.getTimeToLive() != expected.getTimeToLive()
+                        || pdu.getSourcePortNumber() != expected.getSourcePortNumber()
+                        || pdu.getDestinationPortNumber() != expected.getDestinationPortNumber()) {
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+
+    /**
+     * Parse every line once.
+     *
+     * @param mode    0 for IPv4PDU, 1 for the PDUParser from Strings, 2 for
+     *                the PDUParser from bytes.
+     * @param lines   The lines.
+     * @param bytes   The lines in a byte buffer.
+     * @param offsets The offset of each line in the buffer.
+     * @param lengths The length of each line.
+     * @param parser  The parser.
+     * @param pdu     The PDU the parser fills.
+     * @return A checksum of the destination addresses.
+     */
+    private static long parseAll(int mode, String[] lines, byte[] bytes, int[] offsets,
+                                 int[] lengths, PDUParser parser, MutablePDU pdu) {
+        long checksum = 0;
+        for (int i = 0; i < lines.length; ++i) {
+            if (mode == 0) {
+                checksum += new IPv4PDU(lines[i]).getDestinationAddress().getAddress();
+            } else {
+                if (mode == 1) {
+                    parser.parse(lines[i], pdu);
+                } else {
+                    parser.parse(bytes, offsets[i], lengths[i], pdu);
+                }
+                checksum += pdu.getDestinationAddress() & 0xffffffffL;
+            }
+        }
+        return checksum;
+    }
+
+    /**
+     * Get the bytes allocated so far by this thread.
+     *
+     * @return The allocated bytes, or 0 if the JVM cannot measure it.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads)
+                           .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
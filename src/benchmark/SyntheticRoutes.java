@@ -0,0 +1,130 @@
+package src.benchmark;
+
+import src.address.IPv4Address;
+import src.tables.RoutingTable;
+import src.tables.RoutingTableEntry;
+
+import java.util.Random;
+
+/**
+ * Generates routing tables and destination addresses for the benchmarks. The
+ * prefix length mix roughly follows a full internet table: mostly /24s, a
+ * large share of /16 to /23, and a few short and host routes.
+ *
+ * @author silval
+ */
+public final class SyntheticRoutes {
+    // The interfaces routes are spread across.
+    private static final String[] INTERFACES = {"eth0", "eth1", "ppp0"};
+    // The number of distinct gateways in a generated table.
+    private static final int GATEWAYS = 64;
+
+    private final Random random;
+
+    /**
+     * Create a generator with a fixed seed so runs are repeatable.
+     *
+     * @param seed The random seed.
+     */
+    public SyntheticRoutes(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Generate a routing table with a default route plus the given number of
+     * random prefixes.
+     *
+     * @param prefixes The number of random prefixes.
+     * @return The routing table.
+     * @throws Exception If a generated entry could not be parsed.
+     */
+    public RoutingTable generateTable(int prefixes) throws Exception {
+        RoutingTable table = new RoutingTable();
+        table.addEntry(new RoutingTableEntry("0.0.0.0/0 10.0.0.1 eth0"));
+        for (int i = 0; i < prefixes; ++i) {
+            table.addEntry(this.generateEntry());
+        }
+        return table;
+    }
+
+    /**
+     * Generate a single random routing table entry.
+     *
+     * @return The entry.
+     * @throws Exception If the generated entry could not be parsed.
+     */
+    public RoutingTableEntry generateEntry() throws Exception {
+        int length = this.nextPrefixLength_();
+        int prefix = this.random.nextInt() & (length == 0 ? 0 : -1 << (32 - length));
+        int gateway = this.random.nextInt(GATEWAYS);
+        String interfaceType = INTERFACES[gateway % INTERFACES.length];
+        return new RoutingTableEntry(toDottedQuad(prefix) + "/" + length + " 10.1." + gateway
+                                             + ".1 " + interfaceType);
+    }
+
+    /**
+     * Generate destination addresses. Half are uniformly random and half fall
+     * inside prefixes of the table, so that long prefixes are exercised.
+     *
+     * @param table The table to draw prefixes from.
+     * @param count The number of addresses.
+     * @return The addresses as 32 bit ints.
+     */
+    public int[] generateDestinations(RoutingTable table, int count) {
+        int[] destinations = new int[count];
+        for (int i = 0; i < count; ++i) {
+            int address = this.random.nextInt();
+            if ((i & 1) == 0) {
+                int row = this.random.nextInt(table.size());
+                int length = table.getEntry(row).getDestinationAddress().getPrefixLength();
+                int mask = length == 0 ? 0 : -1 << (32 - length);
+                int prefix = table.getEntry(row).getDestinationAddress().getBits();
+                address = (prefix & mask) | (address & ~mask);
+            }
+            destinations[i] = address;
+        }
+        return destinations;
+    }
+
+    /**
+     * Convert 32 bit ints to IPv4Address objects.
+     *
+     * @param addresses The addresses.
+     * @return The IPv4Address objects.
+     */
+    public static IPv4Address[] toAddresses(int[] addresses) {
+        IPv4Address[] result = new IPv4Address[addresses.length];
+        for (int i = 0; i < addresses.length; ++i) {
+            result[i] = new IPv4Address(addresses[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Format a 32 bit address in a.b.c.d notation.
+     *
+     * @param address The address.
+     * @return The dotted quad string.
+     */
+    public static String toDottedQuad(int address) {
+        return (address >>> 24) + "." + ((address >>> 16) & 0xff) + "." + ((address >>> 8) & 0xff)
+                       + "." + (address & 0xff);
+    }
+
+    /**
+     * Pick a prefix length with a distribution similar to a full table.
+     *
+     * @return The prefix length.
+     */
+    private int nextPrefixLength_() {
+        int roll = this.random.nextInt(100);
+        if (roll < 55) {
+            return 24;
+        } else if (roll < 90) {
+            return 16 + this.random.nextInt(8);
+        } else if (roll < 93) {
+            return 8 + this.random.nextInt(8);
+        }
+        return 25 + this.random.nextInt(8);
+    }
+}
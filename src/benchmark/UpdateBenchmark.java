@@ -0,0 +1,120 @@
+package src.benchmark;
+
+import src.address.DestinationAddress;
+import src.binarysearchtrie.BinarySearchTrie;
+import src.tables.RoutingTable;
+import src.tables.RoutingTableEntry;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Measures the rate of incremental route inserts and withdrawals on the
+ * BinarySearchTrie against the size of the table, compared with rebuilding
+ * the trie from scratch. For each table size, a batch of new routes is
+ * inserted and then withdrawn again, and the node count is checked to come
+ * back to where it started, showing that withdrawals prune the nodes that
+ * inserts created.
+ * <p>
+ * usage: java src.benchmark.UpdateBenchmark [-sizes n,n,...] [-updates n]
+ *
+ * @author silval
+ */
+public class UpdateBenchmark {
+
+    private static final String DEFAULT_SIZES = "10000,100000,500000";
+    private static final int DEFAULT_UPDATES = 100000;
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args The command line arguments.
+     */
+    public static void main(String[] args) {
+        String sizes = DEFAULT_SIZES;
+        int updates = DEFAULT_UPDATES;
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                if (args[i].equals("-sizes")) {
+                    sizes = args[++i];
+                } else if (args[i].equals("-updates")) {
+                    updates = Integer.parseInt(args[++i]);
+                } else {
+                    throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("ERROR: invalid command line argument(s)");
+            System.err.println("usage: [-sizes n,n,...] [-updates n]");
+            return;
+        }
+
+        System.out.printf("%d updates per table\n", updates);
+        System.out.printf("%-10s %12s %14s %14s %12s %12s %12s\n", "prefixes", "rebuild ms",
+                          "inserts/s", "withdraws/s", "ns/update", "nodes", "nodes after");
+        try {
+            for (String size : sizes.split(",")) {
+                run(Integer.parseInt(size), updates);
+            }
+        } catch (Exception e) {
+            System.err.println("ERROR: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Build a trie of one size, then time inserting and withdrawing the
+     * updates.
+     *
+     * @param prefixes The number of prefixes in the table.
+     * @param updates  The number of routes inserted and withdrawn.
+     * @throws Exception If a route cannot be generated.
+     */
+    private static void run(int prefixes, int updates) throws Exception {
+        SyntheticRoutes generator = new SyntheticRoutes(4220 + prefixes);
+        RoutingTable table = generator.generateTable(prefixes);
+        // New routes only, so withdrawing them restores the original table.
+        HashSet<String> existing = new HashSet<String>();
+        for (int row = 0; row < table.size(); ++row) {
+            existing.add(key(table.getEntry(row).getDestinationAddress()));
+        }
+        ArrayList<RoutingTableEntry> routes = new ArrayList<RoutingTableEntry>();
+        while (routes.size() < updates) {
+            RoutingTableEntry entry = generator.generateEntry();
+            if (existing.add(key(entry.getDestinationAddress()))) {
+                routes.add(entry);
+            }
+        }
+
+        long start = System.nanoTime();
+        BinarySearchTrie trie = new BinarySearchTrie(table);
+        long rebuildNanos = System.nanoTime() - start;
+        int nodes = trie.getNodeCount();
+
+        start = System.nanoTime();
+        for (RoutingTableEntry entry : routes) {
+            trie.insert(entry.getDestinationAddress(), entry);
+        }
+        long insertNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (RoutingTableEntry entry : routes) {
+            trie.withdraw(entry.getDestinationAddress());
+        }
+        long withdrawNanos = System.nanoTime() - start;
+
+        System.out.printf("%-10d %12d %14.0f %14.0f %12.1f %12d %12d\n", table.size(),
+                          rebuildNanos / 1000000, updates * 1e9 / insertNanos,
+                          updates * 1e9 / withdrawNanos,
+                          (double) (insertNanos + withdrawNanos) / (2L * updates), nodes,
+                          trie.getNodeCount());
+    }
+
+    /**
+     * Get a key identifying a prefix.
+     *
+     * @param destination The destination prefix.
+     * @return The key.
+     */
+    private static String key(DestinationAddress destination) {
+        return destination.getAddress() + "/" + destination.getPrefixLength();
+    }
+}
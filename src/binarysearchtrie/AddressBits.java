@@ -0,0 +1,46 @@
+package src.binarysearchtrie;
+
+import src.address.IPv4Address;
+
+/**
+ * Bit manipulation helpers shared by the lookup engines. Addresses are handled
+ * as 32 bit ints with the first octet in the most significant byte.
+ *
+ * @author silval
+ */
+final class AddressBits {
+
+    private AddressBits() {
+    }
+
+    /**
+     * Get the address as a 32 bit int.
+     *
+     * @param address The IPv4 address.
+     * @return The address bits as an int.
+     */
+    static int toInt(IPv4Address address) {
+        return address.getBits();
+    }
+
+    /**
+     * Get the network mask for a prefix length.
+     *
+     * @param length The prefix length, 0 through 32.
+     * @return The mask with the first length bits set.
+     */
+    static int mask(int length) {
+        return length == 0 ? 0 : -1 << (32 - length);
+    }
+
+    /**
+     * Get the bit at a certain position in an address.
+     *
+     * @param address  The address bits.
+     * @param position The bit position. 0 is MSB, 31 is LSB.
+     * @return either 0 or 1
+     */
+    static int bitAt(int address, int position) {
+        return (address >>> (31 - position)) & 1;
+    }
+}
@@ -7,19 +7,31 @@ import src.tables.RoutingTable;
 import src.tables.RoutingTableEntry;
 
 /**
- * Stores the binary search trie created from the router table.
+ * Stores the binary search trie created from the router table. Routes can be
+ * inserted and withdrawn after it is built, which only touches the nodes on
+ * the path to the route's prefix.
+ * <p>
+ * Once built, the trie is never changed in place. An update copies the nodes
+ * on its path and swaps in the new root, so lookups need no lock and always
+ * walk one consistent snapshot, while the rest of the nodes are shared
+ * between snapshots. Updates are serialized among themselves.
  *
  * @author silval
  */
-public class BinarySearchTrie {
-    private Node root;
+public class BinarySearchTrie implements LongestPrefixMatcher {
+    // The root of the current snapshot, replaced by every update.
+    private volatile Node root;
     private RoutingTable routingTable;
+    private final NextHopTable nextHops;
+    // Incremented by every insert and withdraw.
+    private volatile long version;
 
     /**
      * Default constructor, no arguments.
      */
     @SuppressWarnings("WeakerAccess")
     public BinarySearchTrie() {
+        this.nextHops = new NextHopTable();
         this.setRoot(new Node());
         this.setRoutingTable(null);
     }
@@ -59,6 +71,15 @@ public class BinarySearchTrie {
         this.routingTable = routingTable;
     }
 
+    /**
+     * Get the next hops that the trie refers to.
+     *
+     * @return The next hop table.
+     */
+    public NextHopTable getNextHops() {
+        return this.nextHops;
+    }
+
     Node getRoot() {
         return this.root;
     }
@@ -67,6 +88,110 @@ public class BinarySearchTrie {
         this.root = root;
     }
 
+    /**
+     * Get the version of the routes, which changes with every insert and
+     * withdraw.
+     *
+     * @return The version.
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Count the nodes in the trie. This walks the whole trie.
+     *
+     * @return The number of nodes, including the root.
+     */
+    public int getNodeCount() {
+        return countNodes_(getRoot());
+    }
+
+    /**
+     * Helper to count the nodes of a subtree.
+     *
+     * @param node The root of the subtree, or null.
+     * @return The number of nodes in the subtree.
+     */
+    private static int countNodes_(Node node) {
+        if (node == null) {
+            return 0;
+        }
+        return 1 + countNodes_(node.getLeft()) + countNodes_(node.getRight());
+    }
+
+    /**
+     * Insert a route, replacing any route with the same prefix. The nodes on
+     * the path to the prefix are copied rather than changed, and the new root
+     * is published at once, so lookups running meanwhile see the trie either
+     * wholly before or wholly after the insert.
+     *
+     * @param destination The destination prefix.
+     * @param nextHop     The router table entry giving the gateway and
+     *                    interface of the route.
+     */
+    public synchronized void insert(DestinationAddress destination, RoutingTableEntry nextHop) {
+        Node root = new Node(getRoot());
+        Node currentPtr = root;
+        for (int bit = 0; bit < destination.getPrefixLength(); ++bit) {
+            int branch = destination.getBitAtPosition(bit);
+            Node child = branch != 0 ? currentPtr.getRight() : currentPtr.getLeft();
+            child = child == null ? new Node() : new Node(child);
+            currentPtr.setChild(branch, child);
+            currentPtr = child;
+        }
+        currentPtr.setValue(nextHop);
+        currentPtr.setNextHop(this.getNextHops().getId(nextHop));
+        this.publish_(root);
+    }
+
+    /**
+     * Withdraw the route of a prefix. The nodes left with neither a route nor
+     * a child are removed, up to the first node still needed. Like insert,
+     * the path is copied and the new root published at once.
+     *
+     * @param destination The destination prefix.
+     * @return true if the prefix had a route, false otherwise.
+     */
+    public synchronized boolean withdraw(DestinationAddress destination) {
+        int length = destination.getPrefixLength();
+        // Copies of the nodes on the path to the prefix, so empty ones can be pruned bottom up.
+        Node[] path = new Node[length + 1];
+        path[0] = new Node(getRoot());
+        for (int bit = 0; bit < length; ++bit) {
+            int branch = destination.getBitAtPosition(bit);
+            Node child = branch != 0 ? path[bit].getRight() : path[bit].getLeft();
+            if (child == null) {
+                return false;
+            }
+            path[bit + 1] = new Node(child);
+            path[bit].setChild(branch, path[bit + 1]);
+        }
+        if (path[length].isEmpty()) {
+            return false;
+        }
+        path[length].clearValue();
+        for (int bit = length; bit > 0; --bit) {
+            Node node = path[bit];
+            if (!node.isEmpty() || node.getLeft() != null || node.getRight() != null) {
+                break;
+            }
+            path[bit - 1].setChild(destination.getBitAtPosition(bit - 1), null);
+        }
+        this.publish_(path[0]);
+        return true;
+    }
+
+    /**
+     * Helper to make an updated copy of the trie the one lookups use.
+     *
+     * @param root The root of the updated copy.
+     */
+    private void publish_(Node root) {
+        this.setRoot(root);
+        this.version++;
+    }
+
     /**
      * Helper called by the constructor to make the binary search trie from a
      * router table.
@@ -83,31 +208,40 @@ public class BinarySearchTrie {
                 System.err.println("ERROR: Could not create tree - entry is null");
                 return;
             }
-            // Get the destination address of the entry.
-            DestinationAddress destination = entry.getDestinationAddress();
-            // Loop through the prefix, constructing the tree.
-            Node currentPtr = getRoot();
-            for (int bit = 0; bit < destination.getPrefixLength(); ++bit) {
-                // If bit is 1, go to the right.
-                if (destination.getBitAtPosition(bit) != 0) {
-                    if (currentPtr.getRight() == null) {
-                        Node rightChild = new Node();
-                        currentPtr = currentPtr.setRight(rightChild);
-                    } else {
-                        currentPtr = currentPtr.getRight();
-                    }
+            this.insert_(entry.getDestinationAddress(), entry);
+        }
+    }
+
+    /**
+     * Helper to insert a route without changing the version.
+     *
+     * @param destination The destination prefix.
+     * @param entry       The router table entry of the route.
+     */
+    private void insert_(DestinationAddress destination, RoutingTableEntry entry) {
+        // Loop through the prefix, constructing the tree.
+        Node currentPtr = getRoot();
+        for (int bit = 0; bit < destination.getPrefixLength(); ++bit) {
+            // If bit is 1, go to the right.
+            if (destination.getBitAtPosition(bit) != 0) {
+                if (currentPtr.getRight() == null) {
+                    Node rightChild = new Node();
+                    currentPtr = currentPtr.setRight(rightChild);
                 } else {
-                    // bit is 0, go to the left.
-                    if (currentPtr.getLeft() == null) {
-                        Node leftChild = new Node();
-                        currentPtr = currentPtr.setLeft(leftChild);
-                    } else {
-                        currentPtr = currentPtr.getLeft();
-                    }
+                    currentPtr = currentPtr.getRight();
+                }
+            } else {
+                // bit is 0, go to the left.
+                if (currentPtr.getLeft() == null) {
+                    Node leftChild = new Node();
+                    currentPtr = currentPtr.setLeft(leftChild);
+                } else {
+                    currentPtr = currentPtr.getLeft();
                 }
             }
-            currentPtr.setValue(entry.getGatewayAddress());
         }
+        currentPtr.setValue(entry);
+        currentPtr.setNextHop(this.getNextHops().getId(entry));
     }
 
     /**
@@ -117,12 +251,23 @@ public class BinarySearchTrie {
      * @return The gateway address specified by the router table.
      */
     public GatewayAddress lookupGateway(IPv4Address destination) {
+        RoutingTableEntry entry = this.lookupEntry(destination);
+        return entry == null ? null : entry.getGatewayAddress();
+    }
+
+    /**
+     * Lookup the router table entry in the trie for a certain destination.
+     *
+     * @param destination The destination address.
+     * @return The entry of the longest matching prefix.
+     */
+    public RoutingTableEntry lookupEntry(IPv4Address destination) {
         int bit = 0;
-        GatewayAddress gateway = null;
+        RoutingTableEntry entry = null;
         Node currentPtr = getRoot();
         while (currentPtr != null) {
             if (!currentPtr.isEmpty()) {
-                gateway = currentPtr.getValue();
+                entry = currentPtr.getValue();
             }
             if (destination.getBitAtPosition(bit) != 0) {
                 currentPtr = currentPtr.getRight();
@@ -131,6 +276,73 @@ public class BinarySearchTrie {
             }
             bit++;
         }
-        return gateway;
+        return entry;
+    }
+
+    /**
+     * Lookup the next hop id in the trie for a certain destination.
+     *
+     * @param address The destination address bits.
+     * @return The next hop id, or NextHopTable.NO_ROUTE.
+     */
+    public int lookupNextHop(int address) {
+        int bit = 0;
+        int nextHop = NextHopTable.NO_ROUTE;
+        Node currentPtr = getRoot();
+        while (currentPtr != null) {
+            if (!currentPtr.isEmpty()) {
+                nextHop = currentPtr.getNextHop();
+            }
+            if (bit == 32) {
+                break;
+            }
+            if (AddressBits.bitAt(address, bit) != 0) {
+                currentPtr = currentPtr.getRight();
+            } else {
+                currentPtr = currentPtr.getLeft();
+            }
+            bit++;
+        }
+        return nextHop;
+    }
+
+    /**
+     * Lookup the next hop ids for a burst of destinations, walking all of
+     * them one bit at a time in lockstep so their node loads overlap.
+     *
+     * @param addresses The destination addresses bits.
+     * @param nextHops  Filled with the next hop ids.
+     * @param count     The number of destinations.
+     */
+    public void lookupNextHops(int[] addresses, int[] nextHops, int count) {
+        Node[] nodes = new Node[count];
+        Node root = getRoot();
+        for (int i = 0; i < count; ++i) {
+            nextHops[i] = NextHopTable.NO_ROUTE;
+            nodes[i] = root;
+        }
+        int active = count;
+        for (int bit = 0; active > 0; ++bit) {
+            for (int i = 0; i < count; ++i) {
+                Node currentPtr = nodes[i];
+                if (currentPtr == null) {
+                    continue;
+                }
+                if (!currentPtr.isEmpty()) {
+                    nextHops[i] = currentPtr.getNextHop();
+                }
+                if (bit == 32) {
+                    currentPtr = null;
+                } else if (AddressBits.bitAt(addresses[i], bit) != 0) {
+                    currentPtr = currentPtr.getRight();
+                } else {
+                    currentPtr = currentPtr.getLeft();
+                }
+                nodes[i] = currentPtr;
+                if (currentPtr == null) {
+                    active--;
+                }
+            }
+        }
     }
 }
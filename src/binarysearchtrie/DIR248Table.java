@@ -0,0 +1,223 @@
+package src.binarysearchtrie;
+
+import src.address.GatewayAddress;
+import src.address.IPv4Address;
+import src.tables.RoutingTable;
+import src.tables.RoutingTableEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Stores a DIR-24-8 forwarding table created from the router table. A primary
+ * array indexed by the first 24 bits of the destination holds the next hop of
+ * every /24, and 256 entry overflow blocks hold the last octet of /24s that
+ * contain longer prefixes. A lookup is one array read, or two for addresses
+ * covered by a prefix longer than /24.
+ *
+ * @author silval
+ * @see NextHopTable
+ */
+public class DIR248Table implements LongestPrefixMatcher {
+    // The number of entries in each overflow block.
+    private static final int BLOCK_SIZE = 256;
+    // Primary entries below NO_ROUTE point to an overflow block.
+    private static final int BLOCK_FLAG = Integer.MIN_VALUE;
+
+    private final int[] primary;
+    private int[] overflow;
+    private int blockCount;
+    private final NextHopTable nextHops;
+    private RoutingTable routingTable;
+
+    /**
+     * Creates a DIR-24-8 table from a router table.
+     *
+     * @param routingTable The src.tables.RoutingTable from which to make the table.
+     */
+    public DIR248Table(RoutingTable routingTable) {
+        this.primary = new int[1 << 24];
+        Arrays.fill(this.primary, NextHopTable.NO_ROUTE);
+        this.overflow = new int[BLOCK_SIZE * 16];
+        this.blockCount = 0;
+        this.nextHops = new NextHopTable();
+        this.setRoutingTable(routingTable);
+        try {
+            this.createTableFromTable_(routingTable);
+        } catch (Exception e) {
+            System.err.println("ERROR: Could not create DIR-24-8 table from router table.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Get the underlying router table.
+     *
+     * @return The router table this represents.
+     */
+    public RoutingTable getRoutingTable() {
+        return this.routingTable;
+    }
+
+    /**
+     * Set the router table that this represents.
+     *
+     * @param routingTable The router table from which this is constructed.
+     */
+    private void setRoutingTable(RoutingTable routingTable) {
+        this.routingTable = routingTable;
+    }
+
+    /**
+     * Get the next hops that the table entries refer to.
+     *
+     * @return The next hop table.
+     */
+    public NextHopTable getNextHops() {
+        return this.nextHops;
+    }
+
+    /**
+     * Get the number of overflow blocks in use.
+     *
+     * @return The overflow block count.
+     */
+    public int getBlockCount() {
+        return this.blockCount;
+    }
+
+    /**
+     * Helper called by the constructor to fill the arrays. Entries are written
+     * from the shortest prefix to the longest so that longer prefixes overwrite
+     * the ranges of the shorter ones they are nested in; entries of the same
+     * length keep their table order so the last duplicate wins.
+     *
+     * @param routingTable The src.tables.RoutingTable from which to construct this table.
+     */
+    private void createTableFromTable_(RoutingTable routingTable) {
+        ArrayList<ArrayList<RoutingTableEntry>> byLength =
+                new ArrayList<ArrayList<RoutingTableEntry>>();
+        for (int length = 0; length <= 32; ++length) {
+            byLength.add(new ArrayList<RoutingTableEntry>());
+        }
+        for (int row = 0; row < routingTable.size(); ++row) {
+            RoutingTableEntry entry = routingTable.getEntry(row);
+            if (entry == null) {
+                System.err.println("ERROR: Could not create table - entry is null");
+                return;
+            }
+            byLength.get(entry.getDestinationAddress().getPrefixLength()).add(entry);
+        }
+        for (int length = 0; length <= 32; ++length) {
+            for (RoutingTableEntry entry : byLength.get(length)) {
+                int prefix = AddressBits.toInt(entry.getDestinationAddress())
+                                     & AddressBits.mask(length);
+                this.insert_(prefix, length, this.getNextHops().getId(entry));
+            }
+        }
+    }
+
+    /**
+     * Write a prefix into the arrays.
+     *
+     * @param prefix  The prefix bits.
+     * @param length  The prefix length.
+     * @param nextHop The next hop id.
+     */
+    private void insert_(int prefix, int length, int nextHop) {
+        int index = prefix >>> 8;
+        if (length <= 24) {
+            Arrays.fill(this.primary, index, index + (1 << (24 - length)), nextHop);
+            return;
+        }
+        int block = this.primary[index];
+        if (block >= NextHopTable.NO_ROUTE) {
+            // Expand the /24 into a block, inheriting the covering route.
+            block = this.newBlock_(block);
+            this.primary[index] = BLOCK_FLAG | block;
+        } else {
+            block &= ~BLOCK_FLAG;
+        }
+        int start = block * BLOCK_SIZE + (prefix & 0xff);
+        Arrays.fill(this.overflow, start, start + (1 << (32 - length)), nextHop);
+    }
+
+    /**
+     * Allocate a new overflow block, growing the overflow array if needed.
+     *
+     * @param nextHop The next hop every entry of the block starts with.
+     * @return The block number.
+     */
+    private int newBlock_(int nextHop) {
+        if ((this.blockCount + 1) * BLOCK_SIZE > this.overflow.length) {
+            this.overflow = Arrays.copyOf(this.overflow, this.overflow.length * 2);
+        }
+        int block = this.blockCount++;
+        Arrays.fill(this.overflow, block * BLOCK_SIZE, (block + 1) * BLOCK_SIZE, nextHop);
+        return block;
+    }
+
+    /**
+     * Lookup the next hop id for a destination.
+     *
+     * @param address The destination address bits.
+     * @return The next hop id, or NextHopTable.NO_ROUTE.
+     */
+    public int lookupNextHop(int address) {
+        int nextHop = this.primary[address >>> 8];
+        if (nextHop < NextHopTable.NO_ROUTE) {
+            nextHop = this.overflow[(nextHop & ~BLOCK_FLAG) * BLOCK_SIZE + (address & 0xff)];
+        }
+        return nextHop;
+    }
+
+    /**
+     * Lookup the next hop ids for a burst of destinations. All the primary
+     * table loads are issued first, then the overflow loads of the
+     * destinations that need them, so the loads of one pass do not depend on
+     * each other.
+     *
+     * @param addresses The destination addresses bits.
+     * @param nextHops  Filled with the next hop ids.
+     * @param count     The number of destinations.
+     */
+    public void lookupNextHops(int[] addresses, int[] nextHops, int count) {
+        int pending = 0;
+        for (int i = 0; i < count; ++i) {
+            int nextHop = this.primary[addresses[i] >>> 8];
+            nextHops[i] = nextHop;
+            if (nextHop < NextHopTable.NO_ROUTE) {
+                pending++;
+            }
+        }
+        for (int i = 0; pending > 0; ++i) {
+            int nextHop = nextHops[i];
+            if (nextHop < NextHopTable.NO_ROUTE) {
+                nextHops[i] = this.overflow[(nextHop & ~BLOCK_FLAG) * BLOCK_SIZE
+                                                    + (addresses[i] & 0xff)];
+                pending--;
+            }
+        }
+    }
+
+    /**
+     * Lookup the gateway address for a certain destination.
+     *
+     * @param destination The destination address.
+     * @return The gateway address specified by the router table.
+     */
+    public GatewayAddress lookupGateway(IPv4Address destination) {
+        return this.getNextHops().getGateway(this.lookupNextHop(AddressBits.toInt(destination)));
+    }
+
+    /**
+     * Lookup the router table entry for a certain destination. The entry has
+     * the gateway and interface of the longest matching prefix.
+     *
+     * @param destination The destination address.
+     * @return The router table entry, or null if no route matches.
+     */
+    public RoutingTableEntry lookupEntry(IPv4Address destination) {
+        return this.getNextHops().getEntry(this.lookupNextHop(AddressBits.toInt(destination)));
+    }
+}
@@ -0,0 +1,254 @@
+package src.binarysearchtrie;
+
+import src.address.DestinationAddress;
+import src.address.GatewayAddress;
+import src.address.IPv4Address;
+import src.tables.RoutingTable;
+import src.tables.RoutingTableEntry;
+
+import java.util.Arrays;
+
+/**
+ * Stores the same one node per bit trie as the BinarySearchTrie, but in
+ * parallel int arrays instead of Node objects. Node i has its children at
+ * left[i] and right[i] (0 meaning no child, since the root is never a child)
+ * and its next hop id at nextHop[i]. Once built, the nodes are renumbered
+ * breadth first, so the top levels that every lookup visits are adjacent in
+ * memory.
+ *
+ * @author silval
+ * @see BinarySearchTrie
+ * @see NextHopTable
+ */
+public class FlatTrie implements LongestPrefixMatcher {
+    // The index of the root node.
+    private static final int ROOT = 0;
+    // The child index meaning there is no child.
+    private static final int NONE = 0;
+
+    private int[] left;
+    private int[] right;
+    private int[] nextHop;
+    private int nodeCount;
+    private final NextHopTable nextHops;
+    private RoutingTable routingTable;
+
+    /**
+     * Creates a flat trie from a router table.
+     *
+     * @param routingTable The src.tables.RoutingTable from which to make the trie.
+     */
+    public FlatTrie(RoutingTable routingTable) {
+        int capacity = Math.max(16, routingTable.size() * 4);
+        this.left = new int[capacity];
+        this.right = new int[capacity];
+        this.nextHop = new int[capacity];
+        this.nextHop[ROOT] = NextHopTable.NO_ROUTE;
+        this.nodeCount = 1;
+        this.nextHops = new NextHopTable();
+        this.setRoutingTable(routingTable);
+        try {
+            this.createTreeFromTable_(routingTable);
+            this.layoutBreadthFirst_();
+        } catch (Exception e) {
+            System.err.println("ERROR: Could not create flat trie from router table.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Get the underlying router table.
+     *
+     * @return The router table this trie represents.
+     */
+    public RoutingTable getRoutingTable() {
+        return this.routingTable;
+    }
+
+    /**
+     * Set the router table that this represents.
+     *
+     * @param routingTable The router table from which this is constructed.
+     */
+    private void setRoutingTable(RoutingTable routingTable) {
+        this.routingTable = routingTable;
+    }
+
+    /**
+     * Get the next hops that the trie refers to.
+     *
+     * @return The next hop table.
+     */
+    public NextHopTable getNextHops() {
+        return this.nextHops;
+    }
+
+    /**
+     * Get the number of nodes in the trie.
+     *
+     * @return The node count, including the root.
+     */
+    public int getNodeCount() {
+        return this.nodeCount;
+    }
+
+    /**
+     * Helper called by the constructor to insert every router table entry,
+     * one node per prefix bit.
+     *
+     * @param routingTable The src.tables.RoutingTable from which to construct this trie.
+     */
+    private void createTreeFromTable_(RoutingTable routingTable) {
+        for (int row = 0; row < routingTable.size(); ++row) {
+            RoutingTableEntry entry = routingTable.getEntry(row);
+            if (entry == null) {
+                System.err.println("ERROR: Could not create tree - entry is null");
+                return;
+            }
+            DestinationAddress destination = entry.getDestinationAddress();
+            int address = AddressBits.toInt(destination);
+            int node = ROOT;
+            for (int bit = 0; bit < destination.getPrefixLength(); ++bit) {
+                boolean goRight = AddressBits.bitAt(address, bit) != 0;
+                int child = goRight ? this.right[node] : this.left[node];
+                if (child == NONE) {
+                    child = this.newNode_();
+                    if (goRight) {
+                        this.right[node] = child;
+                    } else {
+                        this.left[node] = child;
+                    }
+                }
+                node = child;
+            }
+            this.nextHop[node] = this.getNextHops().getId(entry);
+        }
+    }
+
+    /**
+     * Allocate a node, growing the arrays if needed.
+     *
+     * @return The index of the new node.
+     */
+    private int newNode_() {
+        if (this.nodeCount == this.nextHop.length) {
+            int capacity = this.nextHop.length * 2;
+            this.left = Arrays.copyOf(this.left, capacity);
+            this.right = Arrays.copyOf(this.right, capacity);
+            this.nextHop = Arrays.copyOf(this.nextHop, capacity);
+        }
+        int node = this.nodeCount++;
+        this.nextHop[node] = NextHopTable.NO_ROUTE;
+        return node;
+    }
+
+    /**
+     * Renumber the nodes in breadth first order, trimming the arrays to size.
+     */
+    private void layoutBreadthFirst_() {
+        int[] order = new int[this.nodeCount];
+        int[] newIndex = new int[this.nodeCount];
+        int tail = 0;
+        order[tail++] = ROOT;
+        for (int head = 0; head < tail; ++head) {
+            int node = order[head];
+            newIndex[node] = head;
+            if (this.left[node] != NONE) {
+                order[tail++] = this.left[node];
+            }
+            if (this.right[node] != NONE) {
+                order[tail++] = this.right[node];
+            }
+        }
+        int[] newLeft = new int[this.nodeCount];
+        int[] newRight = new int[this.nodeCount];
+        int[] newNextHop = new int[this.nodeCount];
+        for (int i = 0; i < this.nodeCount; ++i) {
+            int node = order[i];
+            newLeft[i] = this.left[node] == NONE ? NONE : newIndex[this.left[node]];
+            newRight[i] = this.right[node] == NONE ? NONE : newIndex[this.right[node]];
+            newNextHop[i] = this.nextHop[node];
+        }
+        this.left = newLeft;
+        this.right = newRight;
+        this.nextHop = newNextHop;
+    }
+
+    /**
+     * Lookup the next hop id for a destination.
+     *
+     * @param address The destination address bits.
+     * @return The next hop id, or NextHopTable.NO_ROUTE.
+     */
+    public int lookupNextHop(int address) {
+        int result = NextHopTable.NO_ROUTE;
+        int node = ROOT;
+        for (int bit = 0; ; ++bit) {
+            if (this.nextHop[node] != NextHopTable.NO_ROUTE) {
+                result = this.nextHop[node];
+            }
+            if (bit == 32) {
+                return result;
+            }
+            node = AddressBits.bitAt(address, bit) != 0 ? this.right[node] : this.left[node];
+            if (node == NONE) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Lookup the next hop ids for a burst of destinations, walking all of
+     * them one bit at a time in lockstep so their node loads overlap.
+     *
+     * @param addresses The destination addresses bits.
+     * @param nextHops  Filled with the next hop ids.
+     * @param count     The number of destinations.
+     */
+    public void lookupNextHops(int[] addresses, int[] nextHops, int count) {
+        int[] nodes = new int[count];
+        for (int i = 0; i < count; ++i) {
+            nextHops[i] = this.nextHop[ROOT];
+            nodes[i] = ROOT;
+        }
+        int active = count;
+        for (int bit = 0; bit < 32 && active > 0; ++bit) {
+            for (int i = 0; i < count; ++i) {
+                int node = nodes[i];
+                // The root is never a child, so past the first bit it marks an ended walk.
+                if (node == NONE && bit > 0) {
+                    continue;
+                }
+                node = AddressBits.bitAt(addresses[i], bit) != 0 ? this.right[node]
+                               : this.left[node];
+                nodes[i] = node;
+                if (node == NONE) {
+                    active--;
+                } else if (this.nextHop[node] != NextHopTable.NO_ROUTE) {
+                    nextHops[i] = this.nextHop[node];
+                }
+            }
+        }
+    }
+
+    /**
+     * Lookup the gateway address in the trie for a certain destination.
+     *
+     * @param destination The destination address.
+     * @return The gateway address specified by the router table.
+     */
+    public GatewayAddress lookupGateway(IPv4Address destination) {
+        return this.getNextHops().getGateway(this.lookupNextHop(AddressBits.toInt(destination)));
+    }
+
+    /**
+     * Lookup the router table entry for a certain destination. The entry has
+     * the gateway and interface of the longest matching prefix.
+     *
+     * @param destination The destination address.
+     * @return The router table entry, or null if no route matches.
+     */
+    public RoutingTableEntry lookupEntry(IPv4Address destination) {
+        return this.getNextHops().getEntry(this.lookupNextHop(AddressBits.toInt(destination)));
+    }
+}
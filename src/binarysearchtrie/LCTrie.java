@@ -0,0 +1,437 @@
+package src.binarysearchtrie;
+
+import src.address.GatewayAddress;
+import src.address.IPv4Address;
+import src.tables.RoutingTable;
+import src.tables.RoutingTableEntry;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Stores a level compressed trie (LC-trie, after Nilsson and Karlsson) created
+ * from the router table. Like the PatriciaTrie it skips single child chains,
+ * and in addition it replaces the top levels of every dense subtree with one
+ * node of 2^branch children, so the average lookup depth is close to
+ * log log n.
+ * <p>
+ * The trie is built over the base vector: the prefixes that are not a prefix
+ * of any other route, sorted. The remaining routes go in the prefix vector,
+ * and every entry points to the longest prefix vector entry that contains it.
+ * A lookup walks the trie to a base entry without comparing skipped bits, then
+ * checks that entry and its chain of containing prefixes against the address.
+ * <p>
+ * Each trie node is packed into one int: 5 bits of branch, 5 bits of skip and
+ * 22 bits of address, which is either the index of its first child or, for a
+ * leaf (branch 0), the index of a base vector entry.
+ *
+ * @author silval
+ * @see NextHopTable
+ */
+public class LCTrie implements LongestPrefixMatcher {
+    // The fill factor used when none is given.
+    private static final double DEFAULT_FILL_FACTOR = 0.5;
+    // The largest number of bits a node branches on.
+    private static final int MAX_BRANCH = 20;
+    // The prefix vector index meaning no containing prefix.
+    private static final int NONE = -1;
+    private static final int ADR_BITS = 22;
+    private static final int ADR_MASK = (1 << ADR_BITS) - 1;
+
+    private final double fillFactor;
+    private int[] nodes;
+    private int nodeCount;
+    // The base vector: prefix bits, length, next hop and containing prefix.
+    private int[] baseValue;
+    private byte[] baseLength;
+    private int[] baseNextHop;
+    private int[] basePrefix;
+    // The prefix vector, with the containing prefix of each entry.
+    private int[] prefixValue;
+    private byte[] prefixLength;
+    private int[] prefixNextHop;
+    private int[] prefixParent;
+    private final NextHopTable nextHops;
+    private RoutingTable routingTable;
+
+    /**
+     * Creates an LC-trie with the default fill factor of 0.5.
+     *
+     * @param routingTable The src.tables.RoutingTable from which to make the trie.
+     */
+    public LCTrie(RoutingTable routingTable) {
+        this(routingTable, DEFAULT_FILL_FACTOR);
+    }
+
+    /**
+     * Creates an LC-trie from a router table.
+     *
+     * @param routingTable The src.tables.RoutingTable from which to make the trie.
+     * @param fillFactor   The fraction of the 2^branch subtrees below a node that
+     *                     must be present for it to branch on that many bits,
+     *                     greater than 0 and at most 1. Lower values make the
+     *                     trie shallower but leave more empty children.
+     */
+    public LCTrie(RoutingTable routingTable, double fillFactor) {
+        if (!(fillFactor > 0 && fillFactor <= 1)) {
+            throw new IllegalArgumentException("Fill factor must be in (0, 1]: " + fillFactor);
+        }
+        this.fillFactor = fillFactor;
+        this.nextHops = new NextHopTable();
+        this.setRoutingTable(routingTable);
+        try {
+            this.createTreeFromTable_(routingTable);
+        } catch (Exception e) {
+            System.err.println("ERROR: Could not create LC-trie from router table.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Get the underlying router table.
+     *
+     * @return The router table this trie represents.
+     */
+    public RoutingTable getRoutingTable() {
+        return this.routingTable;
+    }
+
+    /**
+     * Set the router table that this represents.
+     *
+     * @param routingTable The router table from which this is constructed.
+     */
+    private void setRoutingTable(RoutingTable routingTable) {
+        this.routingTable = routingTable;
+    }
+
+    /**
+     * Get the next hops that the trie refers to.
+     *
+     * @return The next hop table.
+     */
+    public NextHopTable getNextHops() {
+        return this.nextHops;
+    }
+
+    /**
+     * Get the fill factor this trie was built with.
+     *
+     * @return The fill factor.
+     */
+    public double getFillFactor() {
+        return this.fillFactor;
+    }
+
+    /**
+     * Get the number of nodes in the trie.
+     *
+     * @return The node count.
+     */
+    public int getNodeCount() {
+        return this.nodeCount;
+    }
+
+    /**
+     * Get the memory used by the node array and the base and prefix vectors.
+     *
+     * @return The size of the arrays in bytes.
+     */
+    public long getMemoryBytes() {
+        return 4L * this.nodeCount + 13L * this.baseValue.length + 13L * this.prefixValue.length;
+    }
+
+    /**
+     * Helper called by the constructor. Splits the routes into the base and
+     * prefix vectors and builds the trie over the base vector.
+     *
+     * @param routingTable The src.tables.RoutingTable from which to construct this trie.
+     */
+    private void createTreeFromTable_(RoutingTable routingTable) {
+        // Number the distinct prefixes, the last duplicate winning. Each key is
+        // the unsigned prefix bits followed by 6 bits of length, so sorting the
+        // keys sorts by prefix and then by length.
+        HashMap<Long, Integer> routes = new HashMap<Long, Integer>();
+        for (int row = 0; row < routingTable.size(); ++row) {
+            RoutingTableEntry entry = routingTable.getEntry(row);
+            if (entry == null) {
+                System.err.println("ERROR: Could not create tree - entry is null");
+                break;
+            }
+            int length = entry.getDestinationAddress().getPrefixLength();
+            long prefix = AddressBits.toInt(entry.getDestinationAddress())
+                                  & AddressBits.mask(length) & 0xffffffffL;
+            routes.put((prefix << 6) | length, this.getNextHops().getId(entry));
+        }
+        long[] keys = new long[routes.size()];
+        int count = 0;
+        for (Long key : routes.keySet()) {
+            keys[count++] = key;
+        }
+        Arrays.sort(keys);
+
+        // A route contains the next one in sorted order exactly when it is the
+        // prefix of some other route, which puts it in the prefix vector.
+        int bases = 0;
+        for (int i = 0; i < count; ++i) {
+            if (i + 1 == count || !contains_(keys[i], keys[i + 1])) {
+                bases++;
+            }
+        }
+        this.baseValue = new int[bases];
+        this.baseLength = new byte[bases];
+        this.baseNextHop = new int[bases];
+        this.basePrefix = new int[bases];
+        this.prefixValue = new int[count - bases];
+        this.prefixLength = new byte[count - bases];
+        this.prefixNextHop = new int[count - bases];
+        this.prefixParent = new int[count - bases];
+        // The prefix vector entries containing the current route, innermost last.
+        int[] stack = new int[33];
+        int depth = 0;
+        int base = 0;
+        int prefix = 0;
+        for (int i = 0; i < count; ++i) {
+            while (depth > 0 && !contains_(this.prefixKey_(stack[depth - 1]), keys[i])) {
+                depth--;
+            }
+            int parent = depth > 0 ? stack[depth - 1] : NONE;
+            int value = (int) (keys[i] >>> 6);
+            byte length = (byte) (keys[i] & 63);
+            int nextHop = routes.get(keys[i]);
+            if (i + 1 == count || !contains_(keys[i], keys[i + 1])) {
+                this.baseValue[base] = value;
+                this.baseLength[base] = length;
+                this.baseNextHop[base] = nextHop;
+                this.basePrefix[base] = parent;
+                base++;
+            } else {
+                this.prefixValue[prefix] = value;
+                this.prefixLength[prefix] = length;
+                this.prefixNextHop[prefix] = nextHop;
+                this.prefixParent[prefix] = parent;
+                stack[depth++] = prefix;
+                prefix++;
+            }
+        }
+
+        this.nodes = new int[Math.max(1, 2 * bases)];
+        this.nodeCount = 0;
+        if (bases > 0) {
+            this.nodeCount = 1;
+            this.build_(0, 0, bases, 0);
+        }
+        this.nodes = Arrays.copyOf(this.nodes, this.nodeCount);
+    }
+
+    /**
+     * Get the sort key of a prefix vector entry.
+     *
+     * @param prefix The prefix vector index.
+     * @return The key.
+     */
+    private long prefixKey_(int prefix) {
+        return ((this.prefixValue[prefix] & 0xffffffffL) << 6) | this.prefixLength[prefix];
+    }
+
+    /**
+     * Determine if one route contains another.
+     *
+     * @param outer The key of the shorter route.
+     * @param inner The key of the longer route.
+     * @return true if the outer route is a prefix of the inner one.
+     */
+    private static boolean contains_(long outer, long inner) {
+        int length = (int) (outer & 63);
+        if ((inner & 63) < length) {
+            return false;
+        }
+        int mask = AddressBits.mask(length);
+        return (((int) (outer >>> 6)) & mask) == (((int) (inner >>> 6)) & mask);
+    }
+
+    /**
+     * Build the subtree over a range of the base vector into a node.
+     *
+     * @param node  The index of the node to fill in.
+     * @param first The first base vector entry of the range.
+     * @param n     The number of entries in the range.
+     * @param pos   The number of address bits consumed above this node.
+     */
+    private void build_(int node, int first, int n, int pos) {
+        if (n == 1) {
+            this.nodes[node] = pack_(0, 0, first);
+            return;
+        }
+        int last = first + n - 1;
+        // Skip the bits all entries of the range share. Distinct base entries
+        // always differ before the end of the shorter one.
+        int newPos = pos;
+        while (AddressBits.bitAt(this.baseValue[first], newPos)
+                       == AddressBits.bitAt(this.baseValue[last], newPos)) {
+            newPos++;
+        }
+        // Branch on as many bits as keep the node full enough.
+        int branch = 1;
+        while (branch < MAX_BRANCH && newPos + branch < 32
+                       && this.countPatterns_(first, n, newPos, branch + 1)
+                                  >= this.fillFactor * (1 << (branch + 1))) {
+            branch++;
+        }
+        int children = this.allocate_(1 << branch);
+        this.nodes[node] = pack_(branch, newPos - pos, children);
+
+        int entry = first;
+        for (int pattern = 0; pattern < (1 << branch); ++pattern) {
+            int start = entry;
+            while (entry <= last && pattern_(this.baseValue[entry], newPos, branch) == pattern) {
+                entry++;
+            }
+            if (entry - start > 0) {
+                this.build_(children + pattern, start, entry - start, newPos + branch);
+            } else {
+                // No entry has this pattern. Point at the neighbour sharing the
+                // most leading bits with it, whose chain of containing prefixes
+                // holds every route that could still match.
+                int best = start > first ? start - 1 : start;
+                if (start > first && start <= last
+                            && sharedBits_(pattern_(this.baseValue[start], newPos, branch),
+                                           pattern, branch)
+                                       > sharedBits_(pattern_(this.baseValue[start - 1], newPos,
+                                                              branch), pattern, branch)) {
+                    best = start;
+                }
+                this.nodes[children + pattern] = pack_(0, 0, best);
+            }
+        }
+    }
+
+    /**
+     * Count the distinct patterns of some bits among a range of base entries.
+     *
+     * @param first  The first entry.
+     * @param n      The number of entries.
+     * @param pos    The position of the first bit.
+     * @param branch The number of bits.
+     * @return The number of distinct patterns.
+     */
+    private int countPatterns_(int first, int n, int pos, int branch) {
+        int patterns = 1;
+        for (int i = first + 1; i < first + n; ++i) {
+            if (pattern_(this.baseValue[i], pos, branch)
+                        != pattern_(this.baseValue[i - 1], pos, branch)) {
+                patterns++;
+            }
+        }
+        return patterns;
+    }
+
+    /**
+     * Allocate consecutive nodes, growing the array if needed.
+     *
+     * @param count The number of nodes.
+     * @return The index of the first node.
+     */
+    private int allocate_(int count) {
+        if (this.nodeCount + count > ADR_MASK) {
+            throw new IllegalStateException("LC-trie has too many nodes");
+        }
+        if (this.nodeCount + count > this.nodes.length) {
+            this.nodes = Arrays.copyOf(this.nodes,
+                                       Math.max(this.nodes.length * 2, this.nodeCount + count));
+        }
+        int start = this.nodeCount;
+        this.nodeCount += count;
+        return start;
+    }
+
+    /**
+     * Extract some bits of an address.
+     *
+     * @param address The address bits.
+     * @param pos     The position of the first bit.
+     * @param branch  The number of bits, at least 1.
+     * @return The bits as an int.
+     */
+    private static int pattern_(int address, int pos, int branch) {
+        return (address << pos) >>> (32 - branch);
+    }
+
+    /**
+     * Count the leading bits two patterns share.
+     *
+     * @param a      The first pattern.
+     * @param b      The second pattern.
+     * @param branch The number of bits in the patterns.
+     * @return The number of equal leading bits.
+     */
+    private static int sharedBits_(int a, int b, int branch) {
+        return Math.min(branch, Integer.numberOfLeadingZeros(a ^ b) - (32 - branch));
+    }
+
+    /**
+     * Pack a node into an int.
+     *
+     * @param branch The number of bits the node branches on, 0 for a leaf.
+     * @param skip   The number of bits skipped before branching.
+     * @param adr    The first child, or the base vector entry of a leaf.
+     * @return The packed node.
+     */
+    private static int pack_(int branch, int skip, int adr) {
+        return (branch << 27) | (skip << ADR_BITS) | adr;
+    }
+
+    /**
+     * Lookup the next hop id for a destination.
+     *
+     * @param address The destination address bits.
+     * @return The next hop id, or NextHopTable.NO_ROUTE.
+     */
+    public int lookupNextHop(int address) {
+        if (this.nodeCount == 0) {
+            return NextHopTable.NO_ROUTE;
+        }
+        int node = this.nodes[0];
+        int pos = (node >>> ADR_BITS) & 31;
+        int branch = node >>> 27;
+        while (branch != 0) {
+            node = this.nodes[(node & ADR_MASK) + ((address << pos) >>> (32 - branch))];
+            pos += branch + ((node >>> ADR_BITS) & 31);
+            branch = node >>> 27;
+        }
+        int base = node & ADR_MASK;
+        if (((address ^ this.baseValue[base]) & AddressBits.mask(this.baseLength[base])) == 0) {
+            return this.baseNextHop[base];
+        }
+        // The base entry does not match, so try the prefixes containing it.
+        for (int prefix = this.basePrefix[base]; prefix != NONE;
+             prefix = this.prefixParent[prefix]) {
+            if (((address ^ this.prefixValue[prefix])
+                         & AddressBits.mask(this.prefixLength[prefix])) == 0) {
+                return this.prefixNextHop[prefix];
+            }
+        }
+        return NextHopTable.NO_ROUTE;
+    }
+
+    /**
+     * Lookup the gateway address in the trie for a certain destination.
+     *
+     * @param destination The destination address.
+     * @return The gateway address specified by the router table.
+     */
+    public GatewayAddress lookupGateway(IPv4Address destination) {
+        return this.getNextHops().getGateway(this.lookupNextHop(AddressBits.toInt(destination)));
+    }
+
+    /**
+     * Lookup the router table entry for a certain destination. The entry has
+     * the gateway and interface of the longest matching prefix.
+     *
+     * @param destination The destination address.
+     * @return The router table entry, or null if no route matches.
+     */
+    public RoutingTableEntry lookupEntry(IPv4Address destination) {
+        return this.getNextHops().getEntry(this.lookupNextHop(AddressBits.toInt(destination)));
+    }
+}
@@ -0,0 +1,87 @@
+package src.binarysearchtrie;
+
+import src.address.GatewayAddress;
+import src.address.IPv4Address;
+import src.tables.RoutingTable;
+import src.tables.RoutingTableEntry;
+
+/**
+ * A route lookup engine built from a router table. Every engine finds the
+ * gateway of the longest prefix matching a destination, with the same result
+ * as the BinarySearchTrie.
+ *
+ * @author silval
+ * @see LookupEngine
+ */
+public interface LongestPrefixMatcher {
+
+    /**
+     * Get the underlying router table.
+     *
+     * @return The router table this engine was built from.
+     */
+    RoutingTable getRoutingTable();
+
+    /**
+     * Lookup the gateway address for a certain destination.
+     *
+     * @param destination The destination address.
+     * @return The gateway address specified by the router table, or null if no
+     * route matches.
+     */
+    GatewayAddress lookupGateway(IPv4Address destination);
+
+    /**
+     * Lookup the forwarding decision for a certain destination: the router
+     * table entry giving the gateway, interface and point to point flag of the
+     * longest matching prefix. Engines that store next hop ids may return
+     * another entry with the same gateway and interface.
+     *
+     * @param destination The destination address.
+     * @return The router table entry, or null if no route matches.
+     */
+    RoutingTableEntry lookupEntry(IPv4Address destination);
+
+    /**
+     * Get the next hops that lookupNextHop returns ids of.
+     *
+     * @return The next hop table.
+     */
+    NextHopTable getNextHops();
+
+    /**
+     * Lookup the id of the next hop for a certain destination.
+     *
+     * @param address The destination address as a 32 bit int.
+     * @return The next hop id, or NextHopTable.NO_ROUTE if no route matches.
+     */
+    int lookupNextHop(int address);
+
+    /**
+     * Lookup the next hop ids for a burst of destinations. Engines may walk
+     * the lookups in lockstep so that their memory accesses overlap instead of
+     * each waiting on the previous one; by default they are done one by one.
+     *
+     * @param addresses The destination addresses as 32 bit ints.
+     * @param nextHops  Filled with the next hop id of each destination, or
+     *                  NextHopTable.NO_ROUTE.
+     * @param count     The number of destinations to lookup.
+     */
+    default void lookupNextHops(int[] addresses, int[] nextHops, int count) {
+        for (int i = 0; i < count; ++i) {
+            nextHops[i] = this.lookupNextHop(addresses[i]);
+        }
+    }
+
+    /**
+     * Get the version of the routes, which changes whenever a route is
+     * added or withdrawn after the engine was built, so that results cached
+     * from earlier lookups can be dropped. Engines that are only built from a
+     * router table never change.
+     *
+     * @return The version.
+     */
+    default long getVersion() {
+        return 0;
+    }
+}
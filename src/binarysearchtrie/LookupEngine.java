@@ -0,0 +1,152 @@
+package src.binarysearchtrie;
+
+import src.tables.RoutingTable;
+
+/**
+ * The route lookup engines that can be selected at runtime, by the name given
+ * on the command line.
+ *
+ * @author silval
+ * @see LongestPrefixMatcher
+ */
+public enum LookupEngine {
+    BINARY("binary") {
+        @Override
+        public LongestPrefixMatcher create(RoutingTable routingTable) {
+            return new BinarySearchTrie(routingTable);
+        }
+    },
+    PATRICIA("patricia") {
+        @Override
+        public LongestPrefixMatcher create(RoutingTable routingTable) {
+            return new PatriciaTrie(routingTable);
+        }
+    },
+    DIR_24_8("dir-24-8") {
+        @Override
+        public LongestPrefixMatcher create(RoutingTable routingTable) {
+            return new DIR248Table(routingTable);
+        }
+    },
+    FLAT("flat") {
+        @Override
+        public LongestPrefixMatcher create(RoutingTable routingTable) {
+            return new FlatTrie(routingTable);
+        }
+    },
+    MULTIBIT("multibit") {
+        @Override
+        public LongestPrefixMatcher create(RoutingTable routingTable) {
+            return new MultibitTrie(routingTable);
+        }
+    },
+    POPTRIE("poptrie") {
+        @Override
+        public LongestPrefixMatcher create(RoutingTable routingTable) {
+            return new Poptrie(routingTable);
+        }
+    },
+    LC_TRIE("lc-trie") {
+        @Override
+        public LongestPrefixMatcher create(RoutingTable routingTable) {
+            return new LCTrie(routingTable);
+        }
+    },
+    LENGTH_SEARCH("length-search") {
+        @Override
+        public LongestPrefixMatcher create(RoutingTable routingTable) {
+            return new PrefixLengthSearch(routingTable);
+        }
+    },
+    ADAPTIVE("adaptive") {
+        @Override
+        public LongestPrefixMatcher create(RoutingTable routingTable) {
+            return choose(routingTable).create(routingTable);
+        }
+    };
+
+    // Below this many routes the pointer based trie is small and fast enough.
+    private static final int SMALL_TABLE = 1024;
+    // From this many routes the fixed 64 MB of the DIR-24-8 table pays off.
+    private static final int LARGE_TABLE = 65536;
+    // Above this share of routes longer than /24, DIR-24-8 needs too many blocks.
+    private static final double LONG_PREFIX_SHARE = 0.25;
+
+    private final String name;
+
+    LookupEngine(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Get the name used to select this engine.
+     *
+     * @return The engine name.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Build this engine from a router table.
+     *
+     * @param routingTable The router table.
+     * @return The lookup engine.
+     */
+    public abstract LongestPrefixMatcher create(RoutingTable routingTable);
+
+    /**
+     * Find an engine by name.
+     *
+     * @param name The engine name, such as "poptrie".
+     * @return The engine, or null if there is none by that name.
+     */
+    public static LookupEngine forName(String name) {
+        for (LookupEngine engine : values()) {
+            if (engine.getName().equalsIgnoreCase(name)) {
+                return engine;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the names of all engines, for usage messages.
+     *
+     * @return The names separated by '|'.
+     */
+    public static String names() {
+        StringBuilder names = new StringBuilder();
+        for (LookupEngine engine : values()) {
+            names.append(names.length() == 0 ? "" : "|").append(engine.getName());
+        }
+        return names.toString();
+    }
+
+    /**
+     * Choose an engine from the size of a router table and its prefix lengths.
+     * Small tables use the Patricia trie; large tables of mostly /24 and
+     * shorter prefixes use DIR-24-8, which then answers in one or two reads;
+     * everything else uses the Poptrie, which stays compact with many long
+     * prefixes.
+     *
+     * @param routingTable The router table.
+     * @return The engine to use, never ADAPTIVE.
+     */
+    public static LookupEngine choose(RoutingTable routingTable) {
+        int size = routingTable.size();
+        if (size < SMALL_TABLE) {
+            return PATRICIA;
+        }
+        int longPrefixes = 0;
+        for (int row = 0; row < size; ++row) {
+            if (routingTable.getEntry(row).getDestinationAddress().getPrefixLength() > 24) {
+                longPrefixes++;
+            }
+        }
+        if (size >= LARGE_TABLE && longPrefixes <= LONG_PREFIX_SHARE * size) {
+            return DIR_24_8;
+        }
+        return POPTRIE;
+    }
+}
@@ -0,0 +1,348 @@
+package src.binarysearchtrie;
+
+import src.address.GatewayAddress;
+import src.address.IPv4Address;
+import src.tables.RoutingTable;
+import src.tables.RoutingTableEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Stores a multibit trie created from the router table. Each level consumes a
+ * configurable number of address bits (its stride), so a lookup takes one
+ * array read per level instead of one per bit. Prefixes that end part way
+ * through a stride are expanded to every slot they cover (controlled prefix
+ * expansion).
+ * <p>
+ * A node of stride s is a block of 2^s slots in two parallel arrays: the next
+ * hop id of the longest prefix ending in that slot, and the offset of the
+ * child block (0 meaning no child, since the root block is never a child).
+ *
+ * @author silval
+ * @see NextHopTable
+ */
+public class MultibitTrie implements LongestPrefixMatcher {
+    // The strides used when none are given.
+    private static final int[] DEFAULT_STRIDES = {16, 8, 8};
+    // The offset of the root block.
+    private static final int ROOT = 0;
+    // The child offset meaning there is no child.
+    private static final int NONE = 0;
+
+    private final int[] strides;
+    private int[] nextHop;
+    private int[] child;
+    // The number of slots in use.
+    private int slotCount;
+    // The number of blocks created at each level.
+    private final int[] nodesPerLevel;
+    private final NextHopTable nextHops;
+    private RoutingTable routingTable;
+
+    /**
+     * Creates a multibit trie with the default 16-8-8 strides.
+     *
+     * @param routingTable The src.tables.RoutingTable from which to make the trie.
+     */
+    public MultibitTrie(RoutingTable routingTable) {
+        this(routingTable, DEFAULT_STRIDES);
+    }
+
+    /**
+     * Creates a multibit trie from a router table.
+     *
+     * @param routingTable The src.tables.RoutingTable from which to make the trie.
+     * @param strides      The number of bits consumed at each level, from 1 to 24
+     *                     each and adding up to 32.
+     */
+    public MultibitTrie(RoutingTable routingTable, int[] strides) {
+        int total = 0;
+        for (int stride : strides) {
+            if (stride < 1 || stride > 24) {
+                throw new IllegalArgumentException("Stride must be between 1 and 24: " + stride);
+            }
+            total += stride;
+        }
+        if (total != 32) {
+            throw new IllegalArgumentException("Strides must add up to 32: "
+                                                       + Arrays.toString(strides));
+        }
+        this.strides = strides.clone();
+        this.nodesPerLevel = new int[strides.length];
+        int capacity = 1 << strides[0];
+        this.nextHop = new int[capacity];
+        this.child = new int[capacity];
+        this.slotCount = 0;
+        this.newBlock_(0);
+        this.nextHops = new NextHopTable();
+        this.setRoutingTable(routingTable);
+        try {
+            this.createTreeFromTable_(routingTable);
+            // Trim the arrays to the slots in use.
+            this.nextHop = Arrays.copyOf(this.nextHop, this.slotCount);
+            this.child = Arrays.copyOf(this.child, this.slotCount);
+        } catch (Exception e) {
+            System.err.println("ERROR: Could not create multibit trie from router table.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Parse strides written as numbers separated by dashes, such as "16-8-8".
+     *
+     * @param strides The stride string.
+     * @return The strides.
+     * @throws NumberFormatException If a stride is not a number.
+     */
+    public static int[] parseStrides(String strides) {
+        String[] parts = strides.split("-");
+        int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; ++i) {
+            result[i] = Integer.parseInt(parts[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Get the underlying router table.
+     *
+     * @return The router table this trie represents.
+     */
+    public RoutingTable getRoutingTable() {
+        return this.routingTable;
+    }
+
+    /**
+     * Set the router table that this represents.
+     *
+     * @param routingTable The router table from which this is constructed.
+     */
+    private void setRoutingTable(RoutingTable routingTable) {
+        this.routingTable = routingTable;
+    }
+
+    /**
+     * Get the next hops that the trie refers to.
+     *
+     * @return The next hop table.
+     */
+    public NextHopTable getNextHops() {
+        return this.nextHops;
+    }
+
+    /**
+     * Get the strides of this trie.
+     *
+     * @return The number of bits consumed at each level.
+     */
+    public int[] getStrides() {
+        return this.strides.clone();
+    }
+
+    /**
+     * Get the number of nodes created at a level.
+     *
+     * @param level The level, 0 being the root.
+     * @return The node count.
+     */
+    public int getNodeCount(int level) {
+        return this.nodesPerLevel[level];
+    }
+
+    /**
+     * Get the memory used by the slot arrays.
+     *
+     * @return The size of the slots in bytes.
+     */
+    public long getMemoryBytes() {
+        return 8L * this.slotCount;
+    }
+
+    /**
+     * Helper called by the constructor to insert every router table entry.
+     * Entries are inserted from the shortest prefix to the longest so that an
+     * expanded prefix never overwrites a longer one; entries of the same length
+     * keep their table order so the last duplicate wins.
+     *
+     * @param routingTable The src.tables.RoutingTable from which to construct this trie.
+     */
+    private void createTreeFromTable_(RoutingTable routingTable) {
+        ArrayList<ArrayList<RoutingTableEntry>> byLength =
+                new ArrayList<ArrayList<RoutingTableEntry>>();
+        for (int length = 0; length <= 32; ++length) {
+            byLength.add(new ArrayList<RoutingTableEntry>());
+        }
+        for (int row = 0; row < routingTable.size(); ++row) {
+            RoutingTableEntry entry = routingTable.getEntry(row);
+            if (entry == null) {
+                System.err.println("ERROR: Could not create tree - entry is null");
+                return;
+            }
+            byLength.get(entry.getDestinationAddress().getPrefixLength()).add(entry);
+        }
+        for (int length = 0; length <= 32; ++length) {
+            for (RoutingTableEntry entry : byLength.get(length)) {
+                int prefix = AddressBits.toInt(entry.getDestinationAddress())
+                                     & AddressBits.mask(length);
+                this.insert_(prefix, length, this.getNextHops().getId(entry));
+            }
+        }
+    }
+
+    /**
+     * Insert a prefix, creating blocks down to the level it ends in and
+     * expanding it across the slots it covers there.
+     *
+     * @param prefix  The prefix bits.
+     * @param length  The prefix length.
+     * @param nextHop The next hop id.
+     */
+    private void insert_(int prefix, int length, int nextHop) {
+        int block = ROOT;
+        int consumed = 0;
+        for (int level = 0; ; ++level) {
+            int stride = this.strides[level];
+            int slot = block + ((prefix << consumed) >>> (32 - stride));
+            if (length <= consumed + stride) {
+                int expansion = 1 << (consumed + stride - length);
+                Arrays.fill(this.nextHop, slot, slot + expansion, nextHop);
+                return;
+            }
+            if (this.child[slot] == NONE) {
+                int newBlock = this.newBlock_(level + 1);
+                this.child[slot] = newBlock;
+            }
+            block = this.child[slot];
+            consumed += stride;
+        }
+    }
+
+    /**
+     * Allocate a block for a level, growing the arrays if needed.
+     *
+     * @param level The level of the new block.
+     * @return The offset of the block.
+     */
+    private int newBlock_(int level) {
+        int size = 1 << this.strides[level];
+        if ((long) this.slotCount + size > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Multibit trie too large for strides "
+                                                    + Arrays.toString(this.strides));
+        }
+        if (this.slotCount + size > this.nextHop.length) {
+            int capacity = (int) Math.min(Integer.MAX_VALUE - 8,
+                                            Math.max(2L * this.nextHop.length,
+                                                     this.slotCount + size));
+            this.nextHop = Arrays.copyOf(this.nextHop, capacity);
+            this.child = Arrays.copyOf(this.child, capacity);
+        }
+        int block = this.slotCount;
+        Arrays.fill(this.nextHop, block, block + size, NextHopTable.NO_ROUTE);
+        this.slotCount += size;
+        this.nodesPerLevel[level]++;
+        return block;
+    }
+
+    /**
+     * Lookup the next hop id for a destination.
+     *
+     * @param address The destination address bits.
+     * @return The next hop id, or NextHopTable.NO_ROUTE.
+     */
+    public int lookupNextHop(int address) {
+        int result = NextHopTable.NO_ROUTE;
+        int block = ROOT;
+        int consumed = 0;
+        for (int stride : this.strides) {
+            int slot = block + ((address << consumed) >>> (32 - stride));
+            if (this.nextHop[slot] != NextHopTable.NO_ROUTE) {
+                result = this.nextHop[slot];
+            }
+            block = this.child[slot];
+            if (block == NONE) {
+                break;
+            }
+            consumed += stride;
+        }
+        return result;
+    }
+
+    /**
+     * Lookup the next hop ids for a burst of destinations, descending one
+     * level for all of them before the next so their block loads overlap.
+     *
+     * @param addresses The destination addresses bits.
+     * @param nextHops  Filled with the next hop ids.
+     * @param count     The number of destinations.
+     */
+    public void lookupNextHops(int[] addresses, int[] nextHops, int count) {
+        int[] blocks = new int[count];
+        for (int i = 0; i < count; ++i) {
+            nextHops[i] = NextHopTable.NO_ROUTE;
+            blocks[i] = ROOT;
+        }
+        int active = count;
+        int consumed = 0;
+        for (int level = 0; level < this.strides.length && active > 0; ++level) {
+            int stride = this.strides[level];
+            for (int i = 0; i < count; ++i) {
+                // The root is never a child, so past the first level it marks an ended walk.
+                if (blocks[i] == NONE && level > 0) {
+                    continue;
+                }
+                int slot = blocks[i] + ((addresses[i] << consumed) >>> (32 - stride));
+                if (this.nextHop[slot] != NextHopTable.NO_ROUTE) {
+                    nextHops[i] = this.nextHop[slot];
+                }
+                blocks[i] = this.child[slot];
+                if (blocks[i] == NONE) {
+                    active--;
+                }
+            }
+            consumed += stride;
+        }
+    }
+
+    /**
+     * Get the number of levels a lookup for a destination visits.
+     *
+     * @param address The destination address bits.
+     * @return The lookup depth, at least 1.
+     */
+    public int lookupDepth(int address) {
+        int block = ROOT;
+        int consumed = 0;
+        int depth = 0;
+        for (int stride : this.strides) {
+            depth++;
+            block = this.child[block + ((address << consumed) >>> (32 - stride))];
+            if (block == NONE) {
+                break;
+            }
+            consumed += stride;
+        }
+        return depth;
+    }
+
+    /**
+     * Lookup the gateway address in the trie for a certain destination.
+     *
+     * @param destination The destination address.
+     * @return The gateway address specified by the router table.
+     */
+    public GatewayAddress lookupGateway(IPv4Address destination) {
+        return this.getNextHops().getGateway(this.lookupNextHop(AddressBits.toInt(destination)));
+    }
+
+    /**
+     * Lookup the router table entry for a certain destination. The entry has
+     * the gateway and interface of the longest matching prefix.
+     *
+     * @param destination The destination address.
+     * @return The router table entry, or null if no route matches.
+     */
+    public RoutingTableEntry lookupEntry(IPv4Address destination) {
+        return this.getNextHops().getEntry(this.lookupNextHop(AddressBits.toInt(destination)));
+    }
+}
@@ -0,0 +1,102 @@
+package src.binarysearchtrie;
+
+import src.address.GatewayAddress;
+import src.tables.RoutingTableEntry;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Numbers the distinct next hops of a router table, so that lookup structures
+ * can store a small int instead of a reference for every prefix. A next hop is
+ * a gateway address on a given interface.
+ * <p>
+ * Next hops can be numbered while other threads look them up, as long as one
+ * thread numbers them at a time: the arrays are replaced, never resized in
+ * place, and an id is only handed out once its next hop is stored.
+ *
+ * @author silval
+ */
+public class NextHopTable {
+    // The id stored by lookup structures when no route matches.
+    public static final int NO_ROUTE = -1;
+
+    // The first router table entry seen for each next hop, indexed by id.
+    private volatile RoutingTableEntry[] entries;
+    // The gateway of each next hop, indexed by id.
+    private volatile GatewayAddress[] gateways;
+    private volatile int size;
+    // Map from gateway and interface to next hop id, only used while numbering.
+    private final HashMap<String, Integer> ids;
+
+    /**
+     * Default constructor, creates an empty next hop table.
+     */
+    public NextHopTable() {
+        this.entries = new RoutingTableEntry[16];
+        this.gateways = new GatewayAddress[16];
+        this.ids = new HashMap<String, Integer>();
+    }
+
+    /**
+     * Get the id of the next hop used by a router table entry, numbering it if
+     * it has not been seen before.
+     *
+     * @param entry The router table entry.
+     * @return The next hop id.
+     */
+    public int getId(RoutingTableEntry entry) {
+        String key = entry.getGatewayAddress().getAddress() + " " + entry.getInterfaceType();
+        Integer id = this.ids.get(key);
+        if (id == null) {
+            id = this.size;
+            if (id == this.entries.length) {
+                this.entries = Arrays.copyOf(this.entries, id * 2);
+                this.gateways = Arrays.copyOf(this.gateways, id * 2);
+            }
+            this.entries[id] = entry;
+            this.gateways[id] = entry.getGatewayAddress();
+            this.ids.put(key, id);
+            this.size = id + 1;
+        }
+        return id;
+    }
+
+    /**
+     * Get the gateway of a next hop.
+     *
+     * @param id The next hop id.
+     * @return The gateway address, or null for NO_ROUTE.
+     */
+    public GatewayAddress getGateway(int id) {
+        if (id == NO_ROUTE) {
+            return null;
+        }
+        return this.gateways[id];
+    }
+
+    /**
+     * Get the router table entry of a next hop. This is the first entry seen
+     * with that gateway and interface, so its gateway, interface and point to
+     * point flag are those of every entry using the next hop, but its
+     * destination may be another one of their prefixes.
+     *
+     * @param id The next hop id.
+     * @return The router table entry, or null for NO_ROUTE.
+     */
+    public RoutingTableEntry getEntry(int id) {
+        if (id == NO_ROUTE) {
+            return null;
+        }
+        return this.entries[id];
+    }
+
+    /**
+     * Get the number of distinct next hops.
+     *
+     * @return The size of the table.
+     */
+    public int size() {
+        return this.size;
+    }
+}
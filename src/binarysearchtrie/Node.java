@@ -1,10 +1,10 @@
 package src.binarysearchtrie;
 
-import src.address.GatewayAddress;
+import src.tables.RoutingTableEntry;
 
 /**
  * Represents a node in the binary search trie. Nodes can be empty or contain a
- * gateway address.
+ * router table entry.
  *
  * @author silval
  */
@@ -16,7 +16,9 @@ public class Node {
     // Is this node empty?
     private boolean isEmpty;
     // The route this node contains if it is not empty.
-    private GatewayAddress value;
+    private RoutingTableEntry value;
+    // The next hop id of the route.
+    private int nextHop;
 
     /**
      * Default constructor. Makes node with no children.
@@ -39,6 +41,19 @@ public class Node {
         this.right = right;
         this.isEmpty = true;
         this.value = null;
+        this.nextHop = NextHopTable.NO_ROUTE;
+    }
+
+    /**
+     * Copy constructor. Makes a node with the same children and route.
+     *
+     * @param other The node to copy.
+     */
+    public Node(Node other) {
+        this(other.getLeft(), other.getRight());
+        this.isEmpty = other.isEmpty();
+        this.value = other.getValue();
+        this.nextHop = other.getNextHop();
     }
 
     /**
@@ -91,12 +106,26 @@ public class Node {
         return this.right;
     }
 
+    /**
+     * Set the child for the given branch bit, replacing any existing one.
+     *
+     * @param bit   0 for the left child, 1 for the right child.
+     * @param child The new child, or null to remove it.
+     */
+    void setChild(int bit, Node child) {
+        if (bit == 0) {
+            this.left = child;
+        } else {
+            this.right = child;
+        }
+    }
+
     /**
      * Return the src.tables.RoutingTableEntry stored in this node.
      *
      * @return The table entry.
      */
-    public GatewayAddress getValue() {
+    public RoutingTableEntry getValue() {
         return value;
     }
 
@@ -105,11 +134,38 @@ public class Node {
      *
      * @param value The value to set
      */
-    public void setValue(GatewayAddress value) {
+    public void setValue(RoutingTableEntry value) {
         this.value = value;
         this.isEmpty = false;
     }
 
+    /**
+     * Remove the route stored in this node, making it empty.
+     */
+    public void clearValue() {
+        this.value = null;
+        this.nextHop = NextHopTable.NO_ROUTE;
+        this.isEmpty = true;
+    }
+
+    /**
+     * Get the next hop id of the route stored in this node.
+     *
+     * @return The next hop id, or NextHopTable.NO_ROUTE if empty.
+     */
+    public int getNextHop() {
+        return nextHop;
+    }
+
+    /**
+     * Set the next hop id of the route stored in this node.
+     *
+     * @param nextHop The next hop id.
+     */
+    public void setNextHop(int nextHop) {
+        this.nextHop = nextHop;
+    }
+
     /**
      * Determine if this node is empty or not.
      *
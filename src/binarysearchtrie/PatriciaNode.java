@@ -0,0 +1,124 @@
+package src.binarysearchtrie;
+
+import src.tables.RoutingTableEntry;
+
+/**
+ * Represents a node in the path compressed trie. Each node stores the prefix
+ * bits leading to it, so chains of single child nodes are skipped instead of
+ * being stored one node per bit.
+ *
+ * @author silval
+ */
+public class PatriciaNode {
+    // The prefix bits leading to this node, left aligned.
+    private final int key;
+    // The number of significant bits in the key.
+    private final int length;
+    // The child taken when the next bit is 0.
+    private PatriciaNode left;
+    // The child taken when the next bit is 1.
+    private PatriciaNode right;
+    // The route stored at this node, null if the node only joins two branches.
+    private RoutingTableEntry value;
+    // The next hop id of the route.
+    private int nextHop;
+
+    /**
+     * Constructor for a PatriciaNode.
+     *
+     * @param key    The prefix bits, bits past the length are cleared.
+     * @param length The prefix length of this node.
+     */
+    PatriciaNode(int key, int length) {
+        this.key = key & AddressBits.mask(length);
+        this.length = length;
+        this.nextHop = NextHopTable.NO_ROUTE;
+    }
+
+    /**
+     * Get the prefix bits leading to this node.
+     *
+     * @return The left aligned key.
+     */
+    int getKey() {
+        return this.key;
+    }
+
+    /**
+     * Get the prefix length of this node.
+     *
+     * @return The number of significant bits in the key.
+     */
+    int getLength() {
+        return this.length;
+    }
+
+    /**
+     * Get the child for the given branch bit.
+     *
+     * @param bit The bit following this node's prefix, 0 or 1.
+     * @return The child node, or null if there is none.
+     */
+    PatriciaNode getChild(int bit) {
+        return bit == 0 ? this.left : this.right;
+    }
+
+    /**
+     * Set the child for the given branch bit, replacing any existing one.
+     *
+     * @param bit   The bit following this node's prefix, 0 or 1.
+     * @param child The new child.
+     */
+    void setChild(int bit, PatriciaNode child) {
+        if (bit == 0) {
+            this.left = child;
+        } else {
+            this.right = child;
+        }
+    }
+
+    /**
+     * Get the router table entry stored at this node.
+     *
+     * @return The entry, or null if this node holds no route.
+     */
+    RoutingTableEntry getValue() {
+        return this.value;
+    }
+
+    /**
+     * Set the router table entry stored at this node.
+     *
+     * @param value The router table entry.
+     */
+    void setValue(RoutingTableEntry value) {
+        this.value = value;
+    }
+
+    /**
+     * Get the next hop id of the route stored at this node.
+     *
+     * @return The next hop id, or NextHopTable.NO_ROUTE if empty.
+     */
+    int getNextHop() {
+        return this.nextHop;
+    }
+
+    /**
+     * Set the next hop id of the route stored at this node.
+     *
+     * @param nextHop The next hop id.
+     */
+    void setNextHop(int nextHop) {
+        this.nextHop = nextHop;
+    }
+
+    /**
+     * Determine if this node is empty or not.
+     *
+     * @return true if this node holds no route.
+     */
+    boolean isEmpty() {
+        return this.value == null;
+    }
+}
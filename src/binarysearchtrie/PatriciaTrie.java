@@ -0,0 +1,228 @@
+package src.binarysearchtrie;
+
+import src.address.DestinationAddress;
+import src.address.GatewayAddress;
+import src.address.IPv4Address;
+import src.tables.RoutingTable;
+import src.tables.RoutingTableEntry;
+
+/**
+ * Stores a path compressed (Patricia) trie created from the router table.
+ * Unlike the BinarySearchTrie, a node is only created where a route ends or
+ * where two routes branch, so a table of n prefixes needs at most 2n nodes and
+ * a lookup only visits branching points.
+ *
+ * @author silval
+ * @see BinarySearchTrie
+ */
+public class PatriciaTrie implements LongestPrefixMatcher {
+    private final PatriciaNode root;
+    private RoutingTable routingTable;
+    private final NextHopTable nextHops;
+    // The number of nodes in the trie, including the root.
+    private int nodeCount;
+
+    /**
+     * Default constructor, creates an empty trie.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public PatriciaTrie() {
+        this.root = new PatriciaNode(0, 0);
+        this.nodeCount = 1;
+        this.nextHops = new NextHopTable();
+        this.setRoutingTable(null);
+    }
+
+    /**
+     * Creates a path compressed trie from a router table.
+     *
+     * @param routingTable The src.tables.RoutingTable from which to make the trie.
+     */
+    public PatriciaTrie(RoutingTable routingTable) {
+        this();
+        this.setRoutingTable(routingTable);
+        try {
+            this.createTreeFromTable_(routingTable);
+        } catch (Exception e) {
+            System.err.println("ERROR: Could not create patricia trie from router table.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Get the underlying router table.
+     *
+     * @return The router table this trie represents.
+     */
+    public RoutingTable getRoutingTable() {
+        return this.routingTable;
+    }
+
+    /**
+     * Set the router table that this represents.
+     *
+     * @param routingTable The router table from which this is constructed.
+     */
+    private void setRoutingTable(RoutingTable routingTable) {
+        this.routingTable = routingTable;
+    }
+
+    /**
+     * Get the next hops that the trie refers to.
+     *
+     * @return The next hop table.
+     */
+    public NextHopTable getNextHops() {
+        return this.nextHops;
+    }
+
+    /**
+     * Get the number of nodes in the trie.
+     *
+     * @return The node count, including the root.
+     */
+    public int getNodeCount() {
+        return this.nodeCount;
+    }
+
+    /**
+     * Helper called by the constructor to insert every router table entry.
+     *
+     * @param routingTable The src.tables.RoutingTable from which to construct this trie.
+     */
+    private void createTreeFromTable_(RoutingTable routingTable) {
+        for (int row = 0; row < routingTable.size(); ++row) {
+            RoutingTableEntry entry = routingTable.getEntry(row);
+            if (entry == null) {
+                System.err.println("ERROR: Could not create tree - entry is null");
+                return;
+            }
+            DestinationAddress destination = entry.getDestinationAddress();
+            this.insert_(AddressBits.toInt(destination), destination.getPrefixLength(), entry);
+        }
+    }
+
+    /**
+     * Insert a prefix into the trie, splitting a compressed edge if the prefix
+     * ends or diverges part way along it. A later insert of the same prefix
+     * replaces the earlier entry, as in the BinarySearchTrie.
+     *
+     * @param prefix The prefix bits.
+     * @param length The prefix length.
+     * @param entry  The router table entry for this prefix.
+     */
+    private void insert_(int prefix, int length, RoutingTableEntry entry) {
+        prefix &= AddressBits.mask(length);
+        PatriciaNode currentPtr = this.root;
+        while (currentPtr.getLength() < length) {
+            int bit = AddressBits.bitAt(prefix, currentPtr.getLength());
+            PatriciaNode child = currentPtr.getChild(bit);
+            if (child == null) {
+                currentPtr.setChild(bit, this.newNode_(prefix, length, entry));
+                return;
+            }
+            // Count how many bits the child's key shares with the prefix.
+            int common = Math.min(Integer.numberOfLeadingZeros(child.getKey() ^ prefix),
+                                  Math.min(child.getLength(), length));
+            if (common == child.getLength()) {
+                currentPtr = child;
+                continue;
+            }
+            // The prefix ends or diverges inside the child's edge, so split it.
+            PatriciaNode split;
+            if (common == length) {
+                split = this.newNode_(prefix, length, entry);
+            } else {
+                split = this.newNode_(prefix, common, null);
+                split.setChild(AddressBits.bitAt(prefix, common),
+                               this.newNode_(prefix, length, entry));
+            }
+            split.setChild(AddressBits.bitAt(child.getKey(), common), child);
+            currentPtr.setChild(bit, split);
+            return;
+        }
+        currentPtr.setValue(entry);
+        currentPtr.setNextHop(this.getNextHops().getId(entry));
+    }
+
+    /**
+     * Create a new node and count it.
+     *
+     * @param key    The prefix bits.
+     * @param length The prefix length.
+     * @param entry  The router table entry, or null for a branching node.
+     * @return The new node.
+     */
+    private PatriciaNode newNode_(int key, int length, RoutingTableEntry entry) {
+        PatriciaNode node = new PatriciaNode(key, length);
+        node.setValue(entry);
+        if (entry != null) {
+            node.setNextHop(this.getNextHops().getId(entry));
+        }
+        this.nodeCount++;
+        return node;
+    }
+
+    /**
+     * Lookup the gateway address in the trie for a certain destination.
+     *
+     * @param destination The destination address.
+     * @return The gateway address specified by the router table.
+     */
+    public GatewayAddress lookupGateway(IPv4Address destination) {
+        RoutingTableEntry entry = this.lookupEntry(destination);
+        return entry == null ? null : entry.getGatewayAddress();
+    }
+
+    /**
+     * Lookup the router table entry in the trie for a certain destination.
+     *
+     * @param destination The destination address.
+     * @return The entry of the longest matching prefix.
+     */
+    public RoutingTableEntry lookupEntry(IPv4Address destination) {
+        int address = AddressBits.toInt(destination);
+        RoutingTableEntry entry = null;
+        PatriciaNode currentPtr = this.root;
+        while (currentPtr != null) {
+            int length = currentPtr.getLength();
+            // Stop once the skipped bits no longer match the destination.
+            if (((address ^ currentPtr.getKey()) & AddressBits.mask(length)) != 0) {
+                break;
+            }
+            if (!currentPtr.isEmpty()) {
+                entry = currentPtr.getValue();
+            }
+            if (length == 32) {
+                break;
+            }
+            currentPtr = currentPtr.getChild(AddressBits.bitAt(address, length));
+        }
+        return entry;
+    }
+
+    /**
+     * Lookup the next hop id in the trie for a certain destination.
+     *
+     * @param address The destination address bits.
+     * @return The next hop id, or NextHopTable.NO_ROUTE.
+     */
+    public int lookupNextHop(int address) {
+        int nextHop = NextHopTable.NO_ROUTE;
+        PatriciaNode currentPtr = this.root;
+        while (currentPtr != null) {
+            int length = currentPtr.getLength();
+            if (((address ^ currentPtr.getKey()) & AddressBits.mask(length)) != 0) {
+                break;
+            }
+            if (!currentPtr.isEmpty()) {
+                nextHop = currentPtr.getNextHop();
+            }
+            if (length == 32) {
+                break;
+            }
+            currentPtr = currentPtr.getChild(AddressBits.bitAt(address, length));
+        }
+        return nextHop;
+    }
+}
@@ -0,0 +1,311 @@
+package src.binarysearchtrie;
+
+import src.address.GatewayAddress;
+import src.address.IPv4Address;
+import src.tables.RoutingTable;
+import src.tables.RoutingTableEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Stores a Poptrie created from the router table: a multibit trie with a
+ * stride of 6, where each node is compressed to two 64 bit bitmaps and two
+ * array offsets. Bit v of a node's vector is set if slot v has a child, and
+ * the child is found by counting the set bits up to v (Long.bitCount), since
+ * the children of a node are stored next to each other. The slots without a
+ * child hold leaves, which are pushed down from shorter prefixes so that a
+ * leaf is always the longest match, and runs of equal leaves are stored once
+ * and found the same way through the leaf vector.
+ * <p>
+ * The address is treated as 36 bits, padded with zeros, so that it divides
+ * into six levels of 6 bits.
+ *
+ * @author silval
+ * @see NextHopTable
+ */
+public class Poptrie implements LongestPrefixMatcher {
+    // The number of address bits consumed at each level.
+    private static final int STRIDE = 6;
+    // The number of slots in a node.
+    private static final int SLOTS = 1 << STRIDE;
+    // The index of the root node.
+    private static final int ROOT = 0;
+
+    // Bit v is set if slot v of the node has a child.
+    private long[] vector;
+    // Bit v is set if slot v holds a leaf that differs from the previous leaf.
+    private long[] leafVector;
+    // The index of the node's first leaf.
+    private int[] leafBase;
+    // The index of the node's first child.
+    private int[] childBase;
+    // The next hop id of each leaf.
+    private int[] leaves;
+    private final NextHopTable nextHops;
+    private RoutingTable routingTable;
+
+    // The uncompressed stride 6 trie used while building, SLOTS entries per node.
+    private int[] buildNextHop;
+    private int[] buildChild;
+    private int buildNodeCount;
+
+    /**
+     * Creates a Poptrie from a router table.
+     *
+     * @param routingTable The src.tables.RoutingTable from which to make the trie.
+     */
+    public Poptrie(RoutingTable routingTable) {
+        this.nextHops = new NextHopTable();
+        this.setRoutingTable(routingTable);
+        this.buildNextHop = new int[SLOTS * 1024];
+        this.buildChild = new int[SLOTS * 1024];
+        this.buildNodeCount = 0;
+        this.newBuildNode_(NextHopTable.NO_ROUTE);
+        try {
+            this.createTreeFromTable_(routingTable);
+            this.compress_();
+        } catch (Exception e) {
+            System.err.println("ERROR: Could not create poptrie from router table.");
+            e.printStackTrace();
+        }
+        this.buildNextHop = null;
+        this.buildChild = null;
+    }
+
+    /**
+     * Get the underlying router table.
+     *
+     * @return The router table this trie represents.
+     */
+    public RoutingTable getRoutingTable() {
+        return this.routingTable;
+    }
+
+    /**
+     * Set the router table that this represents.
+     *
+     * @param routingTable The router table from which this is constructed.
+     */
+    private void setRoutingTable(RoutingTable routingTable) {
+        this.routingTable = routingTable;
+    }
+
+    /**
+     * Get the next hops that the trie refers to.
+     *
+     * @return The next hop table.
+     */
+    public NextHopTable getNextHops() {
+        return this.nextHops;
+    }
+
+    /**
+     * Get the number of nodes in the trie.
+     *
+     * @return The node count, including the root.
+     */
+    public int getNodeCount() {
+        return this.vector.length;
+    }
+
+    /**
+     * Get the memory used by the node and leaf arrays.
+     *
+     * @return The size of the arrays in bytes.
+     */
+    public long getMemoryBytes() {
+        return 24L * this.vector.length + 4L * this.leaves.length;
+    }
+
+    /**
+     * Helper called by the constructor to insert every router table entry into
+     * the uncompressed trie. Entries are inserted from the shortest prefix to
+     * the longest, so a child node can inherit the leaf of the slot it is
+     * created under and an expanded prefix never overwrites a longer one;
+     * entries of the same length keep their table order so the last duplicate
+     * wins.
+     *
+     * @param routingTable The src.tables.RoutingTable from which to construct this trie.
+     */
+    private void createTreeFromTable_(RoutingTable routingTable) {
+        ArrayList<ArrayList<RoutingTableEntry>> byLength =
+                new ArrayList<ArrayList<RoutingTableEntry>>();
+        for (int length = 0; length <= 32; ++length) {
+            byLength.add(new ArrayList<RoutingTableEntry>());
+        }
+        for (int row = 0; row < routingTable.size(); ++row) {
+            RoutingTableEntry entry = routingTable.getEntry(row);
+            if (entry == null) {
+                System.err.println("ERROR: Could not create tree - entry is null");
+                return;
+            }
+            byLength.get(entry.getDestinationAddress().getPrefixLength()).add(entry);
+        }
+        for (int length = 0; length <= 32; ++length) {
+            for (RoutingTableEntry entry : byLength.get(length)) {
+                int prefix = AddressBits.toInt(entry.getDestinationAddress())
+                                     & AddressBits.mask(length);
+                this.insert_(prefix, length, this.getNextHops().getId(entry));
+            }
+        }
+    }
+
+    /**
+     * Insert a prefix into the uncompressed trie.
+     *
+     * @param prefix  The prefix bits.
+     * @param length  The prefix length.
+     * @param nextHop The next hop id.
+     */
+    private void insert_(int prefix, int length, int nextHop) {
+        int node = ROOT;
+        for (int offset = 0; ; offset += STRIDE) {
+            int slot = node * SLOTS + ((prefix << offset) >>> (32 - STRIDE));
+            if (length <= offset + STRIDE) {
+                int expansion = 1 << (offset + STRIDE - length);
+                Arrays.fill(this.buildNextHop, slot, slot + expansion, nextHop);
+                return;
+            }
+            if (this.buildChild[slot] == ROOT) {
+                int child = this.newBuildNode_(this.buildNextHop[slot]);
+                this.buildChild[slot] = child;
+            }
+            node = this.buildChild[slot];
+        }
+    }
+
+    /**
+     * Allocate a node of the uncompressed trie, growing the arrays if needed.
+     *
+     * @param nextHop The leaf every slot of the node starts with.
+     * @return The index of the new node.
+     */
+    private int newBuildNode_(int nextHop) {
+        if ((this.buildNodeCount + 1) * SLOTS > this.buildNextHop.length) {
+            int capacity = this.buildNextHop.length * 2;
+            this.buildNextHop = Arrays.copyOf(this.buildNextHop, capacity);
+            this.buildChild = Arrays.copyOf(this.buildChild, capacity);
+        }
+        int node = this.buildNodeCount++;
+        Arrays.fill(this.buildNextHop, node * SLOTS, (node + 1) * SLOTS, nextHop);
+        return node;
+    }
+
+    /**
+     * Compress the uncompressed trie into bitmaps. Nodes are numbered breadth
+     * first so the children of each node are numbered consecutively.
+     */
+    private void compress_() {
+        int[] order = new int[this.buildNodeCount];
+        int tail = 0;
+        order[tail++] = ROOT;
+        this.vector = new long[this.buildNodeCount];
+        this.leafVector = new long[this.buildNodeCount];
+        this.leafBase = new int[this.buildNodeCount];
+        this.childBase = new int[this.buildNodeCount];
+        int[] leafList = new int[SLOTS];
+        int leafCount = 0;
+        for (int head = 0; head < tail; ++head) {
+            int node = order[head];
+            this.childBase[head] = tail;
+            this.leafBase[head] = leafCount;
+            int previous = 0;
+            boolean first = true;
+            for (int slot = 0; slot < SLOTS; ++slot) {
+                int index = node * SLOTS + slot;
+                if (this.buildChild[index] != ROOT) {
+                    this.vector[head] |= 1L << slot;
+                    order[tail++] = this.buildChild[index];
+                } else if (first || this.buildNextHop[index] != previous) {
+                    // Start a new run of equal leaves.
+                    this.leafVector[head] |= 1L << slot;
+                    if (leafCount == leafList.length) {
+                        leafList = Arrays.copyOf(leafList, leafList.length * 2);
+                    }
+                    leafList[leafCount++] = this.buildNextHop[index];
+                    previous = this.buildNextHop[index];
+                    first = false;
+                }
+            }
+        }
+        this.leaves = Arrays.copyOf(leafList, leafCount);
+    }
+
+    /**
+     * Lookup the next hop id for a destination.
+     *
+     * @param address The destination address bits.
+     * @return The next hop id, or NextHopTable.NO_ROUTE.
+     */
+    public int lookupNextHop(int address) {
+        int node = ROOT;
+        int slot = address >>> (32 - STRIDE);
+        long bits = this.vector[node];
+        int offset = 0;
+        while ((bits & (1L << slot)) != 0) {
+            node = this.childBase[node] + Long.bitCount(bits & ((2L << slot) - 1)) - 1;
+            offset += STRIDE;
+            slot = (address << offset) >>> (32 - STRIDE);
+            bits = this.vector[node];
+        }
+        return this.leaves[this.leafBase[node]
+                                   + Long.bitCount(this.leafVector[node] & ((2L << slot) - 1)) - 1];
+    }
+
+    /**
+     * Lookup the next hop ids for a burst of destinations, descending one
+     * level for all of them before the next so their node loads overlap.
+     * While a walk is in progress its next hop slot holds -2 minus its node,
+     * which cannot be confused with a next hop id.
+     *
+     * @param addresses The destination addresses bits.
+     * @param nextHops  Filled with the next hop ids.
+     * @param count     The number of destinations.
+     */
+    public void lookupNextHops(int[] addresses, int[] nextHops, int count) {
+        for (int i = 0; i < count; ++i) {
+            nextHops[i] = -2 - ROOT;
+        }
+        int active = count;
+        for (int offset = 0; active > 0; offset += STRIDE) {
+            for (int i = 0; i < count; ++i) {
+                if (nextHops[i] > -2) {
+                    continue;
+                }
+                int node = -2 - nextHops[i];
+                int slot = (addresses[i] << offset) >>> (32 - STRIDE);
+                long bits = this.vector[node];
+                if ((bits & (1L << slot)) != 0) {
+                    node = this.childBase[node] + Long.bitCount(bits & ((2L << slot) - 1)) - 1;
+                    nextHops[i] = -2 - node;
+                } else {
+                    nextHops[i] = this.leaves[this.leafBase[node]
+                            + Long.bitCount(this.leafVector[node] & ((2L << slot) - 1)) - 1];
+                    active--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Lookup the gateway address in the trie for a certain destination.
+     *
+     * @param destination The destination address.
+     * @return The gateway address specified by the router table.
+     */
+    public GatewayAddress lookupGateway(IPv4Address destination) {
+        return this.getNextHops().getGateway(this.lookupNextHop(AddressBits.toInt(destination)));
+    }
+
+    /**
+     * Lookup the router table entry for a certain destination. The entry has
+     * the gateway and interface of the longest matching prefix.
+     *
+     * @param destination The destination address.
+     * @return The router table entry, or null if no route matches.
+     */
+    public RoutingTableEntry lookupEntry(IPv4Address destination) {
+        return this.getNextHops().getEntry(this.lookupNextHop(AddressBits.toInt(destination)));
+    }
+}
@@ -0,0 +1,292 @@
+package src.binarysearchtrie;
+
+import src.address.GatewayAddress;
+import src.address.IPv4Address;
+import src.tables.RoutingTable;
+import src.tables.RoutingTableEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds the longest matching prefix by binary search on prefix lengths
+ * (Waldvogel et al.). There is one hash table per prefix length present in
+ * the router table, and a lookup probes the table of the middle length: a hit
+ * means a longer match may exist, a miss means only shorter ones can. That
+ * takes at most log2 of the number of distinct lengths probes, 6 at most for
+ * IPv4, however large the table grows.
+ * <p>
+ * For a hit to be a safe signal to search longer, every route leaves a marker
+ * (its first bits) in the tables of the shorter lengths where the search
+ * would otherwise turn left before reaching it. Each entry stores its best
+ * matching prefix, the next hop of the longest real route covering it, so a
+ * search that goes right on a marker and then misses still knows its answer.
+ * <p>
+ * The tables use open addressing with linear probing over a long array. Each
+ * slot packs the prefix bits in the upper half and the best matching next hop
+ * id plus 2 in the lower half, so 0 marks an empty slot.
+ *
+ * @author silval
+ * @see NextHopTable
+ */
+public class PrefixLengthSearch implements LongestPrefixMatcher {
+    // The lower half of a slot is the next hop id plus this, never 0 when used.
+    private static final int VALUE_OFFSET = 2;
+
+    // The distinct prefix lengths, sorted.
+    private int[] lengths;
+    // The hash table for each length, its size a power of two.
+    private long[][] tables;
+    private int markerCount;
+    private final NextHopTable nextHops;
+    private RoutingTable routingTable;
+
+    /**
+     * Creates the per length hash tables from a router table.
+     *
+     * @param routingTable The src.tables.RoutingTable from which to make the tables.
+     */
+    public PrefixLengthSearch(RoutingTable routingTable) {
+        this.lengths = new int[0];
+        this.tables = new long[0][];
+        this.nextHops = new NextHopTable();
+        this.setRoutingTable(routingTable);
+        try {
+            this.createTablesFromTable_(routingTable);
+        } catch (Exception e) {
+            System.err.println("ERROR: Could not create prefix length search from router table.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Get the underlying router table.
+     *
+     * @return The router table this represents.
+     */
+    public RoutingTable getRoutingTable() {
+        return this.routingTable;
+    }
+
+    /**
+     * Set the router table that this represents.
+     *
+     * @param routingTable The router table from which this is constructed.
+     */
+    private void setRoutingTable(RoutingTable routingTable) {
+        this.routingTable = routingTable;
+    }
+
+    /**
+     * Get the next hops that the tables refer to.
+     *
+     * @return The next hop table.
+     */
+    public NextHopTable getNextHops() {
+        return this.nextHops;
+    }
+
+    /**
+     * Get the number of distinct prefix lengths, which bounds the probes per
+     * lookup to its log2.
+     *
+     * @return The number of hash tables.
+     */
+    public int getLengthCount() {
+        return this.lengths.length;
+    }
+
+    /**
+     * Get the number of markers added to the tables.
+     *
+     * @return The marker count.
+     */
+    public int getMarkerCount() {
+        return this.markerCount;
+    }
+
+    /**
+     * Get the memory used by the hash tables.
+     *
+     * @return The size of the tables in bytes.
+     */
+    public long getMemoryBytes() {
+        long bytes = 0;
+        for (long[] table : this.tables) {
+            bytes += 8L * table.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Helper called by the constructor to fill the hash tables.
+     *
+     * @param routingTable The src.tables.RoutingTable from which to construct the tables.
+     */
+    private void createTablesFromTable_(RoutingTable routingTable) {
+        // Collect the real routes of each length, the last duplicate winning.
+        ArrayList<HashMap<Integer, Integer>> routes = new ArrayList<HashMap<Integer, Integer>>();
+        for (int length = 0; length <= 32; ++length) {
+            routes.add(new HashMap<Integer, Integer>());
+        }
+        for (int row = 0; row < routingTable.size(); ++row) {
+            RoutingTableEntry entry = routingTable.getEntry(row);
+            if (entry == null) {
+                System.err.println("ERROR: Could not create tables - entry is null");
+                break;
+            }
+            int length = entry.getDestinationAddress().getPrefixLength();
+            int prefix = AddressBits.toInt(entry.getDestinationAddress()) & AddressBits.mask(length);
+            routes.get(length).put(prefix, this.getNextHops().getId(entry));
+        }
+        int count = 0;
+        for (int length = 0; length <= 32; ++length) {
+            if (!routes.get(length).isEmpty()) {
+                count++;
+            }
+        }
+        this.lengths = new int[count];
+        count = 0;
+        for (int length = 0; length <= 32; ++length) {
+            if (!routes.get(length).isEmpty()) {
+                this.lengths[count++] = length;
+            }
+        }
+
+        // Add the markers each route needs along its binary search path.
+        ArrayList<HashMap<Integer, Integer>> entries = new ArrayList<HashMap<Integer, Integer>>();
+        for (int i = 0; i < this.lengths.length; ++i) {
+            entries.add(new HashMap<Integer, Integer>(routes.get(this.lengths[i])));
+        }
+        for (int target = 0; target < this.lengths.length; ++target) {
+            for (int prefix : routes.get(this.lengths[target]).keySet()) {
+                int low = 0;
+                int high = this.lengths.length - 1;
+                while (low <= high) {
+                    int middle = (low + high) >>> 1;
+                    if (middle == target) {
+                        break;
+                    } else if (middle > target) {
+                        high = middle - 1;
+                        continue;
+                    }
+                    int marker = prefix & AddressBits.mask(this.lengths[middle]);
+                    if (!entries.get(middle).containsKey(marker)) {
+                        entries.get(middle).put(marker, bestMatch_(routes, marker,
+                                                                   this.lengths[middle]));
+                        this.markerCount++;
+                    }
+                    low = middle + 1;
+                }
+            }
+        }
+
+        this.tables = new long[this.lengths.length][];
+        for (int i = 0; i < this.lengths.length; ++i) {
+            this.tables[i] = buildTable_(entries.get(i));
+        }
+    }
+
+    /**
+     * Find the next hop of the longest real route covering some prefix bits.
+     *
+     * @param routes The real routes of each length.
+     * @param prefix The prefix bits.
+     * @param length The number of prefix bits.
+     * @return The next hop id, or NextHopTable.NO_ROUTE.
+     */
+    private static int bestMatch_(ArrayList<HashMap<Integer, Integer>> routes, int prefix,
+                                  int length) {
+        for (int l = length; l >= 0; --l) {
+            Integer nextHop = routes.get(l).get(prefix & AddressBits.mask(l));
+            if (nextHop != null) {
+                return nextHop;
+            }
+        }
+        return NextHopTable.NO_ROUTE;
+    }
+
+    /**
+     * Build an open addressed hash table holding at most half full.
+     *
+     * @param entries The prefix bits and best matching next hop of each entry.
+     * @return The table.
+     */
+    private static long[] buildTable_(HashMap<Integer, Integer> entries) {
+        int capacity = Integer.highestOneBit(Math.max(1, entries.size()) * 2 - 1) << 1;
+        long[] table = new long[capacity];
+        for (Map.Entry<Integer, Integer> entry : entries.entrySet()) {
+            int slot = hash_(entry.getKey(), capacity);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            table[slot] = ((long) entry.getKey() << 32) | (entry.getValue() + VALUE_OFFSET);
+        }
+        return table;
+    }
+
+    /**
+     * Hash prefix bits to a slot. Multiplying spreads the high order prefix
+     * bits into the upper bits of the product, which pick the slot.
+     *
+     * @param prefix   The prefix bits.
+     * @param capacity The table size, a power of two.
+     * @return The slot.
+     */
+    private static int hash_(int prefix, int capacity) {
+        return (int) (((prefix * 0x9E3779B97F4A7C15L) >>> 32) & (capacity - 1));
+    }
+
+    /**
+     * Lookup the next hop id for a destination.
+     *
+     * @param address The destination address bits.
+     * @return The next hop id, or NextHopTable.NO_ROUTE.
+     */
+    public int lookupNextHop(int address) {
+        int result = NextHopTable.NO_ROUTE;
+        int low = 0;
+        int high = this.lengths.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int prefix = address & AddressBits.mask(this.lengths[middle]);
+            long[] table = this.tables[middle];
+            int mask = table.length - 1;
+            int slot = hash_(prefix, table.length);
+            long value;
+            while ((value = table[slot]) != 0 && (int) (value >>> 32) != prefix) {
+                slot = (slot + 1) & mask;
+            }
+            if (value != 0) {
+                // Found a route or marker, so a longer match may exist.
+                result = (int) value - VALUE_OFFSET;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Lookup the gateway address for a certain destination.
+     *
+     * @param destination The destination address.
+     * @return The gateway address specified by the router table.
+     */
+    public GatewayAddress lookupGateway(IPv4Address destination) {
+        return this.getNextHops().getGateway(this.lookupNextHop(AddressBits.toInt(destination)));
+    }
+
+    /**
+     * Lookup the router table entry for a certain destination. The entry has
+     * the gateway and interface of the longest matching prefix.
+     *
+     * @param destination The destination address.
+     * @return The router table entry, or null if no route matches.
+     */
+    public RoutingTableEntry lookupEntry(IPv4Address destination) {
+        return this.getNextHops().getEntry(this.lookupNextHop(AddressBits.toInt(destination)));
+    }
+}
@@ -13,8 +13,7 @@ public class IPv4PDU {
     private String interfaceType;
     private IPv4Address sourceAddress;
     private IPv4Address destinationAddress;
-    @SuppressWarnings({"FieldCanBeLocal", "UnusedDeclaration"})
-    private int protocolNumber; // Not used, but still part of PDU.
+    private int protocolNumber;
     private int timeToLive;
     private int sourcePortNumber;
     private int destinationPortNumber;
@@ -45,6 +44,57 @@ public class IPv4PDU {
         this.destinationPortNumber = Integer.parseInt(pduValues[6]);
     }
 
+    /**
+     * Constructor for an IPv4 PDU from one read by a PDUParser.
+     *
+     * @param pdu           The parsed PDU.
+     * @param interfaceType The name of its ingress interface.
+     */
+    public IPv4PDU(MutablePDU pdu, String interfaceType) {
+        this.setFields(interfaceType, new IPv4Address(pdu.getSourceAddress()),
+                       new IPv4Address(pdu.getDestinationAddress()), pdu.getProtocolNumber(),
+                       pdu.getTimeToLive(), pdu.getSourcePortNumber(),
+                       pdu.getDestinationPortNumber());
+    }
+
+    /**
+     * Constructor for a PDU whose fields a subclass fills in.
+     */
+    protected IPv4PDU() {
+    }
+
+    /**
+     * Set every field of this PDU, as read by a subclass.
+     *
+     * @param interfaceType         The ingress interface, such as eth0.
+     * @param sourceAddress         The source address.
+     * @param destinationAddress    The destination address.
+     * @param protocolNumber        The protocol number.
+     * @param timeToLive            The TTL.
+     * @param sourcePortNumber      The source port number.
+     * @param destinationPortNumber The destination port number.
+     */
+    protected void setFields(String interfaceType, IPv4Address sourceAddress,
+                             IPv4Address destinationAddress, int protocolNumber, int timeToLive,
+                             int sourcePortNumber, int destinationPortNumber) {
+        this.interfaceType = interfaceType;
+        this.sourceAddress = sourceAddress;
+        this.destinationAddress = destinationAddress;
+        this.protocolNumber = protocolNumber;
+        this.timeToLive = timeToLive;
+        this.sourcePortNumber = sourcePortNumber;
+        this.destinationPortNumber = destinationPortNumber;
+    }
+
+    /**
+     * Get the interface this PDU was received on.
+     *
+     * @return The ingress interface, such as eth0.
+     */
+    public String getInterfaceType() {
+        return this.interfaceType;
+    }
+
     /**
      * Get the source address.
      *
@@ -71,6 +121,15 @@ public class IPv4PDU {
         this.destinationAddress = destinationAddress;
     }
 
+    /**
+     * Get the protocol number for this PDU.
+     *
+     * @return The protocol number, such as 6 for TCP.
+     */
+    public int getProtocolNumber() {
+        return this.protocolNumber;
+    }
+
     /**
      * Get the TTL for this PDU.
      *
@@ -0,0 +1,106 @@
+package src.pdu;
+
+/**
+ * Holds the fields of a PDU as primitive ints, to be filled again and again
+ * by a PDUParser without allocating. Addresses are the 32 address bits, and
+ * the ingress interface is the id the parser gave its name.
+ *
+ * @author silval
+ * @see PDUParser
+ * @see IPv4PDU
+ */
+public class MutablePDU {
+    private int interfaceId;
+    private int sourceAddress;
+    private int destinationAddress;
+    private int protocolNumber;
+    private int timeToLive;
+    private int sourcePortNumber;
+    private int destinationPortNumber;
+
+    /**
+     * Set every field of this PDU.
+     *
+     * @param interfaceId           The ingress interface id.
+     * @param sourceAddress         The source address bits.
+     * @param destinationAddress    The destination address bits.
+     * @param protocolNumber        The protocol number.
+     * @param timeToLive            The TTL.
+     * @param sourcePortNumber      The source port number.
+     * @param destinationPortNumber The destination port number.
+     */
+    public void set(int interfaceId, int sourceAddress, int destinationAddress,
+                    int protocolNumber, int timeToLive, int sourcePortNumber,
+                    int destinationPortNumber) {
+        this.interfaceId = interfaceId;
+        this.sourceAddress = sourceAddress;
+        this.destinationAddress = destinationAddress;
+        this.protocolNumber = protocolNumber;
+        this.timeToLive = timeToLive;
+        this.sourcePortNumber = sourcePortNumber;
+        this.destinationPortNumber = destinationPortNumber;
+    }
+
+    /**
+     * Get the id of the interface this PDU was received on.
+     *
+     * @return The interface id, whose name the parser gives.
+     */
+    public int getInterfaceId() {
+        return this.interfaceId;
+    }
+
+    /**
+     * Get the source address.
+     *
+     * @return The source address bits.
+     */
+    public int getSourceAddress() {
+        return this.sourceAddress;
+    }
+
+    /**
+     * Get the destination address.
+     *
+     * @return The destination address bits.
+     */
+    public int getDestinationAddress() {
+        return this.destinationAddress;
+    }
+
+    /**
+     * Get the protocol number for this PDU.
+     *
+     * @return The protocol number, such as 6 for TCP.
+     */
+    public int getProtocolNumber() {
+        return this.protocolNumber;
+    }
+
+    /**
+     * Get the TTL for this PDU.
+     *
+     * @return The TTL value.
+     */
+    public int getTimeToLive() {
+        return this.timeToLive;
+    }
+
+    /**
+     * Get the source port number.
+     *
+     * @return The source port number.
+     */
+    public int getSourcePortNumber() {
+        return this.sourcePortNumber;
+    }
+
+    /**
+     * Get the destination port number.
+     *
+     * @return The destination port number.
+     */
+    public int getDestinationPortNumber() {
+        return this.destinationPortNumber;
+    }
+}
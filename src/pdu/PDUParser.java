@@ -0,0 +1,350 @@
+package src.pdu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses PDU lines, in the format IPv4PDU reads, into a MutablePDU in a single
+ * scan and without allocating: the addresses, ports, protocol and TTL are
+ * read straight into ints, and the interface name is looked up in a table of
+ * the names seen so far and given as an id. Only the first PDU received on an
+ * interface allocates, to remember its name.
+ * <p>
+ * A line has seven fields separated by whitespace, and may end with
+ * whitespace. A line that does not is malformed, as is an address that is not
+ * four numbers from 0 to 255 separated by dots, or a number that is not
+ * digits with an optional sign. Lines can be given as any CharSequence, such
+ * as a String or a CharBuffer, or as a range of ASCII bytes in an array or a
+ * ByteBuffer.
+ * <p>
+ * A parser keeps state between calls and is not thread safe.
+ *
+ * @author silval
+ * @see MutablePDU
+ */
+public class PDUParser {
+    // Returned by the field readers when a field is malformed.
+    private static final long MALFORMED = Long.MIN_VALUE;
+
+    // The interface names by id, and an open addressed index of id plus one.
+    private String[] names = new String[16];
+    private int[] index = new int[32];
+    private int nameCount;
+    // The line being parsed, from chars, from bytes or from a byte buffer.
+    private CharSequence chars;
+    private byte[] bytes;
+    private ByteBuffer buffer;
+    private int position;
+    private int end;
+
+    /**
+     * Parse a line.
+     *
+     * @param line The line.
+     * @param pdu  The PDU to fill.
+     * @return true if the line was parsed into the PDU, false if it is
+     * malformed, leaving the PDU partly filled.
+     */
+    public boolean parse(CharSequence line, MutablePDU pdu) {
+        this.chars = line;
+        this.bytes = null;
+        this.buffer = null;
+        this.position = 0;
+        this.end = line.length();
+        return this.parseLine(pdu);
+    }
+
+    /**
+     * Parse a line of ASCII bytes.
+     *
+     * @param bytes  The bytes holding the line.
+     * @param offset The index of the first byte of the line.
+     * @param length The number of bytes in the line, without its line break.
+     * @param pdu    The PDU to fill.
+     * @return true if the line was parsed into the PDU, false if it is
+     * malformed, leaving the PDU partly filled.
+     */
+    public boolean parse(byte[] bytes, int offset, int length, MutablePDU pdu) {
+        this.chars = null;
+        this.bytes = bytes;
+        this.buffer = null;
+        this.position = offset;
+        this.end = offset + length;
+        return this.parseLine(pdu);
+    }
+
+    /**
+     * Parse a line of ASCII bytes in a buffer, which may be a direct buffer.
+     * The position and limit of the buffer are not used or changed.
+     *
+     * @param buffer The buffer holding the line.
+     * @param offset The index of the first byte of the line.
+     * @param length The number of bytes in the line, without its line break.
+     * @param pdu    The PDU to fill.
+     * @return true if the line was parsed into the PDU, false if it is
+     * malformed, leaving the PDU partly filled.
+     */
+    public boolean parse(ByteBuffer buffer, int offset, int length, MutablePDU pdu) {
+        this.chars = null;
+        this.bytes = null;
+        this.buffer = buffer;
+        this.position = offset;
+        this.end = offset + length;
+        return this.parseLine(pdu);
+    }
+
+    /**
+     * Get the name of an interface.
+     *
+     * @param id The interface id given by this parser.
+     * @return The interface name, such as eth0.
+     */
+    public String getInterfaceName(int id) {
+        return this.names[id];
+    }
+
+    /**
+     * Get the number of interfaces seen so far, whose ids are 0 to this
+     * number less one.
+     *
+     * @return The interface count.
+     */
+    public int getInterfaceCount() {
+        return this.nameCount;
+    }
+
+    /**
+     * Parse the line set up by parse.
+     *
+     * @param pdu The PDU to fill.
+     * @return true if parsed, false if malformed.
+     */
+    private boolean parseLine(MutablePDU pdu) {
+        int nameStart = this.position;
+        int nameHash = this.readName();
+        int nameLength = this.position - nameStart;
+        long source = this.readAddress();
+        long destination = this.readAddress();
+        long protocol = this.readNumber();
+        long timeToLive = this.readNumber();
+        long sourcePort = this.readNumber();
+        long destinationPort = this.readNumber();
+        if (nameLength == 0 || source == MALFORMED || destination == MALFORMED
+                    || protocol == MALFORMED || timeToLive == MALFORMED
+                    || sourcePort == MALFORMED || destinationPort == MALFORMED) {
+            return false;
+        }
+        // Only whitespace may follow the last field.
+        while (this.position < this.end) {
+            if (!isWhitespace(this.charAt(this.position++))) {
+                return false;
+            }
+        }
+        // The name is only remembered once the line is known to be well formed.
+        int interfaceId = this.findInterface(nameStart, nameLength, nameHash);
+        pdu.set(interfaceId, (int) source, (int) destination, (int) protocol, (int) timeToLive,
+                (int) sourcePort, (int) destinationPort);
+        return true;
+    }
+
+    /**
+     * Read the interface name field, the first field of the line, which is
+     * empty if the line starts with whitespace.
+     *
+     * @return The hash of the name, as String.hashCode gives it.
+     */
+    private int readName() {
+        int hash = 0;
+        while (this.position < this.end && !isWhitespace(this.charAt(this.position))) {
+            hash = hash * 31 + this.charAt(this.position++);
+        }
+        return hash;
+    }
+
+    /**
+     * Find the id of an interface name, giving it a new id if it was not seen
+     * before.
+     *
+     * @param start  The index of the first character of the name.
+     * @param length The number of characters.
+     * @param hash   The hash of the name.
+     * @return The interface id.
+     */
+    private int findInterface(int start, int length, int hash) {
+        int mask = this.index.length - 1;
+        int bucket = hash & mask;
+        for (; this.index[bucket] != 0; bucket = (bucket + 1) & mask) {
+            int id = this.index[bucket] - 1;
+            if (this.matches(this.names[id], start, length)) {
+                return id;
+            }
+        }
+        return this.addInterface(start, length, bucket);
+    }
+
+    /**
+     * Determine if a name is the text of the line at the given range.
+     *
+     * @param name   The name.
+     * @param start  The index of the first character.
+     * @param length The number of characters.
+     * @return true if they are the same, false otherwise.
+     */
+    private boolean matches(String name, int start, int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (name.charAt(i) != this.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remember a new interface name, growing the table if it is half full.
+     *
+     * @param start  The index of the first character of the name.
+     * @param length The number of characters.
+     * @param bucket The empty bucket the name hashes to.
+     * @return The new interface id.
+     */
+    private int addInterface(int start, int length, int bucket) {
+        StringBuilder name = new StringBuilder(length);
+        for (int i = 0; i < length; ++i) {
+            name.append((char) this.charAt(start + i));
+        }
+        if (this.nameCount == this.names.length) {
+            String[] names = new String[this.names.length * 2];
+            System.arraycopy(this.names, 0, names, 0, this.nameCount);
+            this.names = names;
+        }
+        int id = this.nameCount++;
+        this.names[id] = name.toString();
+        this.index[bucket] = id + 1;
+        if (this.nameCount * 2 > this.index.length) {
+            this.index = new int[this.index.length * 2];
+            int mask = this.index.length - 1;
+            for (int i = 0; i < this.nameCount; ++i) {
+                int b = this.names[i].hashCode() & mask;
+                while (this.index[b] != 0) {
+                    b = (b + 1) & mask;
+                }
+                this.index[b] = i + 1;
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Skip the whitespace before a field.
+     *
+     * @return true if there was whitespace and then a field, false otherwise.
+     */
+    private boolean skipSeparator() {
+        int start = this.position;
+        while (this.position < this.end && isWhitespace(this.charAt(this.position))) {
+            this.position++;
+        }
+        return this.position > start && this.position < this.end;
+    }
+
+    /**
+     * Read an address field in a.b.c.d notation.
+     *
+     * @return The address bits, or MALFORMED.
+     */
+    private long readAddress() {
+        if (!this.skipSeparator()) {
+            return MALFORMED;
+        }
+        long address = 0;
+        for (int part = 0; part < 4; ++part) {
+            if (part > 0) {
+                if (this.position >= this.end || this.charAt(this.position) != '.') {
+                    return MALFORMED;
+                }
+                this.position++;
+            }
+            int value = 0;
+            int digits = 0;
+            int c;
+            while (this.position < this.end && (c = this.charAt(this.position)) >= '0'
+                           && c <= '9') {
+                value = value * 10 + (c - '0');
+                if (value > 255) {
+                    return MALFORMED;
+                }
+                digits++;
+                this.position++;
+            }
+            if (digits == 0) {
+                return MALFORMED;
+            }
+            address = address << 8 | value;
+        }
+        if (this.position < this.end && !isWhitespace(this.charAt(this.position))) {
+            return MALFORMED;
+        }
+        return address;
+    }
+
+    /**
+     * Read a number field, as Integer.parseInt would.
+     *
+     * @return The number, or MALFORMED.
+     */
+    private long readNumber() {
+        if (!this.skipSeparator()) {
+            return MALFORMED;
+        }
+        boolean negative = false;
+        int c = this.charAt(this.position);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            this.position++;
+        }
+        long value = 0;
+        int digits = 0;
+        while (this.position < this.end && (c = this.charAt(this.position)) >= '0'
+                       && c <= '9') {
+            value = value * 10 + (c - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                return MALFORMED;
+            }
+            digits++;
+            this.position++;
+        }
+        if (digits == 0
+                    || (this.position < this.end && !isWhitespace(this.charAt(this.position)))) {
+            return MALFORMED;
+        }
+        value = negative ? -value : value;
+        return value > Integer.MAX_VALUE ? MALFORMED : value;
+    }
+
+    /**
+     * Get a character of the line.
+     *
+     * @param i The index in the chars or bytes.
+     * @return The character.
+     */
+    private int charAt(int i) {
+        if (this.buffer != null) {
+            return this.buffer.get(i) & 0xff;
+        }
+        return this.bytes != null ? this.bytes[i] & 0xff : this.chars.charAt(i);
+    }
+
+    /**
+     * Determine if a character is whitespace, as the regular expression \s
+     * matches it.
+     *
+     * @param c The character.
+     * @return true if it is a space, tab, line break, vertical tab or form
+     * feed.
+     */
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || (c >= '\t' && c <= '\r');
+    }
+}
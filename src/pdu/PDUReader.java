@@ -0,0 +1,190 @@
+package src.pdu;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads PDU lines from a channel, such as standard input or a file, into a
+ * MutablePDU. Input is read in large blocks into one reused direct buffer,
+ * lines are found in place in the buffer, and each is handed to a PDUParser
+ * as a range of bytes, so reading a PDU neither copies nor allocates.
+ * <p>
+ * Blank lines are skipped. Malformed lines, and lines longer than the
+ * buffer, are counted and skipped, so one bad line does not end the input.
+ * <p>
+ * A reader is not thread safe.
+ *
+ * @author silval
+ * @see PDUParser
+ */
+public class PDUReader {
+    // The default buffer size.
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final PDUParser parser = new PDUParser();
+    // The unread input is from lineStart to dataEnd in the buffer.
+    private int lineStart;
+    private int dataEnd;
+    private boolean endOfInput;
+    // Set while skipping the rest of a line too long for the buffer.
+    private boolean discarding;
+    private long lines;
+    private long malformedLines;
+
+    /**
+     * Create a reader with the default buffer size.
+     *
+     * @param channel The channel to read from.
+     */
+    public PDUReader(ReadableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a reader.
+     *
+     * @param channel    The channel to read from.
+     * @param bufferSize The size of the buffer, which is the longest line
+     *                   that can be read.
+     */
+    public PDUReader(ReadableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Read the next well formed PDU, skipping blank and malformed lines.
+     *
+     * @param pdu The PDU to fill.
+     * @return true if a PDU was read, false at the end of the input.
+     * @throws IOException If the channel cannot be read.
+     */
+    public boolean next(MutablePDU pdu) throws IOException {
+        int scan = this.lineStart;
+        while (true) {
+            int newline = this.indexOfNewline(scan);
+            if (newline >= 0) {
+                int start = this.lineStart;
+                this.lineStart = newline + 1;
+                scan = this.lineStart;
+                if (this.discarding) {
+                    this.discarding = false;
+                } else if (this.parseLine(start, newline - start, pdu)) {
+                    return true;
+                }
+            } else if (this.endOfInput) {
+                // The last line may have no line break.
+                int start = this.lineStart;
+                this.lineStart = this.dataEnd;
+                return !this.discarding && start < this.dataEnd
+                               && this.parseLine(start, this.dataEnd - start, pdu);
+            } else {
+                scan = this.fill();
+            }
+        }
+    }
+
+    /**
+     * Get the name of an interface.
+     *
+     * @param id The interface id of a PDU read by this reader.
+     * @return The interface name, such as eth0.
+     */
+    public String getInterfaceName(int id) {
+        return this.parser.getInterfaceName(id);
+    }
+
+    /**
+     * Get the number of lines read so far, blank lines excepted.
+     *
+     * @return The line count.
+     */
+    public long getLines() {
+        return this.lines;
+    }
+
+    /**
+     * Get the number of malformed lines skipped so far.
+     *
+     * @return The malformed line count.
+     */
+    public long getMalformedLines() {
+        return this.malformedLines;
+    }
+
+    /**
+     * Parse a line, counting it.
+     *
+     * @param start  The index of the line in the buffer.
+     * @param length The length of the line.
+     * @param pdu    The PDU to fill.
+     * @return true if the line was a PDU, false if it was blank or malformed.
+     */
+    private boolean parseLine(int start, int length, MutablePDU pdu) {
+        if (length == 0 || (length == 1 && this.buffer.get(start) == '\r')) {
+            return false;
+        }
+        this.lines++;
+        if (!this.parser.parse(this.buffer, start, length, pdu)) {
+            this.malformedLines++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Find the next line break.
+     *
+     * @param from The index to search from.
+     * @return The index of the line break, or -1 if there is none before the
+     * end of the data read.
+     */
+    private int indexOfNewline(int from) {
+        for (int i = from; i < this.dataEnd; ++i) {
+            if (this.buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Move the unread part of the current line to the front of the buffer
+     * and read more input after it. A line that fills the whole buffer is
+     * counted as malformed and skipped up to its line break.
+     *
+     * @return The index to carry on searching for a line break from.
+     * @throws IOException If the channel cannot be read.
+     */
+    private int fill() throws IOException {
+        int scanned = this.dataEnd - this.lineStart;
+        if (scanned == this.buffer.capacity()) {
+            if (!this.discarding) {
+                this.lines++;
+                this.malformedLines++;
+                this.discarding = true;
+            }
+            scanned = 0;
+            this.lineStart = this.dataEnd;
+        }
+        for (int i = this.lineStart; i < this.dataEnd; ++i) {
+            this.buffer.put(i - this.lineStart, this.buffer.get(i));
+        }
+        // Read after the moved bytes, through Buffer so the calls run on Java 8.
+        Buffer free = this.buffer;
+        free.limit(free.capacity());
+        free.position(this.dataEnd - this.lineStart);
+        this.lineStart = 0;
+        int read;
+        do {
+            read = this.channel.read(this.buffer);
+        } while (read == 0);
+        this.dataEnd = this.buffer.position();
+        this.endOfInput = read < 0;
+        return scanned;
+    }
+}
@@ -0,0 +1,261 @@
+package src.pdu;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the packets of a pcap capture file through a memory mapping of the
+ * file, so captures of any size are read without copying them onto the heap.
+ * The file is mapped a window of up to 1 GB at a time, and each packet is
+ * given to a WirePDU where it lies in the mapping.
+ * <p>
+ * The mapping is private: routing rewrites the packets in memory, but the
+ * file is left as it is. A file that cannot be opened for writing can only be
+ * mapped read only, and then the headers of each packet are copied into a
+ * small buffer to be rewritten there. Captures in either byte order, with microsecond or
+ * nanosecond timestamps, are read, of Ethernet (with or without VLAN tags),
+ * Linux cooked, BSD loopback or raw IP frames.
+ *
+ * @author silval
+ * @see WirePDU
+ */
+public class PcapReader implements Closeable {
+    // The most bytes mapped at once.
+    private static final int MAX_WINDOW = 1 << 30;
+    private static final int FILE_HEADER_LENGTH = 24;
+    private static final int RECORD_HEADER_LENGTH = 16;
+    // The largest packet accepted, beyond which the file is taken to be corrupt.
+    private static final int MAX_PACKET_LENGTH = 1 << 24;
+    private static final int LINKTYPE_NULL = 0;
+    private static final int LINKTYPE_ETHERNET = 1;
+    private static final int LINKTYPE_RAW = 101;
+    private static final int LINKTYPE_LINUX_SLL = 113;
+    private static final int LINKTYPE_IPV4 = 228;
+    // DLT_RAW as some systems write it.
+    private static final int DLT_RAW_BSD = 12;
+    private static final int DLT_RAW_OPENBSD = 14;
+    private static final int ETHERTYPE_IPV4 = 0x0800;
+    private static final int ETHERTYPE_VLAN = 0x8100;
+    private static final int ETHERTYPE_QINQ = 0x88a8;
+    // Enough of a packet for the longest IPv4 and TCP headers.
+    private static final int MAX_HEADERS_LENGTH = 120;
+
+    private final FileChannel channel;
+    // Where packets are copied to if the file is mapped read only, else null.
+    private final ByteBuffer headers;
+    private final long size;
+    private final ByteOrder order;
+    private final int linkType;
+    private MappedByteBuffer window;
+    // The file position of the start of the window, and of the next record.
+    private long windowStart;
+    private long position;
+    // The current packet: its index in the window and its lengths.
+    private int packetOffset;
+    private int capturedLength;
+    private int originalLength;
+
+    /**
+     * Open a capture file and read its header.
+     *
+     * @param fileName The name of the capture file.
+     * @throws IOException If the file cannot be read, or is not a pcap file
+     *                     of a supported link type.
+     */
+    public PcapReader(String fileName) throws IOException {
+        FileChannel channel;
+        boolean writable = true;
+        try {
+            // Reading and writing, for a private mapping; the file is not written.
+            channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE);
+        } catch (AccessDeniedException e) {
+            channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+            writable = false;
+        }
+        this.channel = channel;
+        this.headers = writable ? null : ByteBuffer.allocateDirect(MAX_HEADERS_LENGTH);
+        try {
+            this.size = this.channel.size();
+            if (this.size < FILE_HEADER_LENGTH) {
+                throw new IOException(fileName + " is not a pcap file");
+            }
+            this.map(0);
+            int magic = this.window.getInt(0);
+            if (magic == 0xa1b2c3d4 || magic == 0xa1b23c4d) {
+                this.order = ByteOrder.BIG_ENDIAN;
+            } else if (magic == 0xd4c3b2a1 || magic == 0x4d3cb2a1) {
+                this.order = ByteOrder.LITTLE_ENDIAN;
+            } else {
+                throw new IOException(fileName + " is not a pcap file");
+            }
+            this.window.order(this.order);
+            this.linkType = this.window.getInt(20) & 0xffff;
+            if (this.linkType != LINKTYPE_NULL && this.linkType != LINKTYPE_ETHERNET
+                        && this.linkType != LINKTYPE_RAW && this.linkType != LINKTYPE_LINUX_SLL
+                        && this.linkType != LINKTYPE_IPV4 && this.linkType != DLT_RAW_BSD
+                        && this.linkType != DLT_RAW_OPENBSD) {
+                throw new IOException(fileName + " has unsupported link type " + this.linkType);
+            }
+            this.position = FILE_HEADER_LENGTH;
+        } catch (IOException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Move to the next packet of the capture.
+     *
+     * @return true if there is a packet, false at the end of the file, or
+     * where the file ends part way through a packet.
+     * @throws IOException If the file cannot be mapped, or a packet length is
+     *                     not believable.
+     */
+    public boolean next() throws IOException {
+        if (this.position + RECORD_HEADER_LENGTH > this.size) {
+            return false;
+        }
+        if (this.position + RECORD_HEADER_LENGTH > this.windowStart + this.window.limit()) {
+            this.map(this.position);
+        }
+        int header = (int) (this.position - this.windowStart);
+        int capturedLength = this.window.getInt(header + 8);
+        int originalLength = this.window.getInt(header + 12);
+        if (capturedLength < 0 || capturedLength > MAX_PACKET_LENGTH) {
+            throw new IOException("corrupt packet record at byte " + this.position);
+        }
+        long end = this.position + RECORD_HEADER_LENGTH + capturedLength;
+        if (end > this.size) {
+            return false;
+        }
+        if (end > this.windowStart + this.window.limit()) {
+            this.map(this.position);
+            header = 0;
+        }
+        this.packetOffset = header + RECORD_HEADER_LENGTH;
+        this.capturedLength = capturedLength;
+        this.originalLength = originalLength;
+        this.position = end;
+        return true;
+    }
+
+    /**
+     * Read the current packet into a PDU, if it is an IPv4 packet.
+     *
+     * @param pdu           The PDU to wrap around the packet.
+     * @param interfaceType The interface the packet is taken to be received on.
+     * @return true if the packet was read, false if it is not IPv4 or is cut
+     * short.
+     */
+    public boolean read(WirePDU pdu, String interfaceType) {
+        int offset = this.packetOffset;
+        int length = this.capturedLength;
+        int skip;
+        switch (this.linkType) {
+            case LINKTYPE_ETHERNET:
+                skip = 14;
+                int etherType = length >= skip ? this.getShort(offset + 12) : 0;
+                while ((etherType == ETHERTYPE_VLAN || etherType == ETHERTYPE_QINQ)
+                               && length >= skip + 4) {
+                    etherType = this.getShort(offset + skip + 2);
+                    skip += 4;
+                }
+                if (etherType != ETHERTYPE_IPV4) {
+                    return false;
+                }
+                break;
+            case LINKTYPE_LINUX_SLL:
+                skip = 16;
+                if (length < skip || this.getShort(offset + 14) != ETHERTYPE_IPV4) {
+                    return false;
+                }
+                break;
+            case LINKTYPE_NULL:
+                skip = 4;
+                // The address family, AF_INET, in the byte order of the capturing host.
+                int family = length >= skip ? this.window.getInt(offset) : 0;
+                if (family != 2 && Integer.reverseBytes(family) != 2) {
+                    return false;
+                }
+                break;
+            default:
+                skip = 0;
+        }
+        if (length <= skip) {
+            return false;
+        }
+        if (this.headers == null) {
+            return pdu.wrap(this.window, offset + skip, length - skip, interfaceType);
+        }
+        int copied = Math.min(length - skip, MAX_HEADERS_LENGTH);
+        for (int i = 0; i < copied; ++i) {
+            this.headers.put(i, this.window.get(offset + skip + i));
+        }
+        return pdu.wrap(this.headers, 0, copied, interfaceType);
+    }
+
+    /**
+     * Get the length of the current packet on the wire, which may be more than
+     * was captured.
+     *
+     * @return The original length in bytes, link layer header included.
+     */
+    public int getOriginalLength() {
+        return this.originalLength;
+    }
+
+    /**
+     * Get the length of the capture file.
+     *
+     * @return The size in bytes.
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * Close the capture file. The last mapping is released when it is
+     * garbage collected.
+     *
+     * @throws IOException If the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * Map a window of the file.
+     *
+     * @param start The file position the window starts at.
+     * @throws IOException If the file cannot be mapped.
+     */
+    private void map(long start) throws IOException {
+        long length = Math.min(MAX_WINDOW, this.size - start);
+        this.window = this.channel.map(this.headers == null ? FileChannel.MapMode.PRIVATE
+                                               : FileChannel.MapMode.READ_ONLY, start, length);
+        if (this.order != null) {
+            this.window.order(this.order);
+        }
+        this.windowStart = start;
+    }
+
+    /**
+     * Read a 16 bit word of a frame header, in network byte order.
+     *
+     * @param index The index of the word in the window.
+     * @return The word.
+     */
+    private int getShort(int index) {
+        ByteBuffer window = this.window;
+        return (window.get(index) & 0xff) << 8 | window.get(index + 1) & 0xff;
+    }
+}
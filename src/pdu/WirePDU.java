@@ -0,0 +1,282 @@
+package src.pdu;
+
+import src.address.IPv4Address;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An IPv4 PDU read from a packet in wire format: an IPv4 header of 20 bytes
+ * or more, followed by the TCP or UDP header for the ports. The fields are
+ * read straight out of the buffer holding the packet, which is not copied,
+ * so it can be a direct buffer or a mapped file.
+ * <p>
+ * Routing writes back into the packet. Decrementing the TTL and rewriting an
+ * address or port for NAT change the bytes of the header in place, and update
+ * the IPv4 header checksum and the TCP or UDP checksum incrementally, as in
+ * RFC 1624, so the packet is ready to forward without being serialized again.
+ * A packet whose TTL is already 0 is left as it is, since it is not forwarded.
+ * <p>
+ * A WirePDU can be wrapped around one packet after another. The routes
+ * generated for it refer to it, so they must be used before it is wrapped
+ * again.
+ *
+ * @author silval
+ * @see IPv4PDU
+ */
+public class WirePDU extends IPv4PDU {
+    // The smallest IPv4 header, without options.
+    public static final int MIN_HEADER_LENGTH = 20;
+    private static final int TCP = 6;
+    private static final int UDP = 17;
+
+    // The buffer holding the packet, and the index of its first byte.
+    private ByteBuffer buffer;
+    private int offset;
+    private int totalLength;
+    // The index of the TCP or UDP header, or -1 if the ports are not there.
+    private int transport;
+    // The index of the TCP or UDP checksum, or -1 if there is none to update.
+    private int transportChecksum;
+
+    /**
+     * Read the header of a packet.
+     *
+     * @param buffer        The buffer holding the packet.
+     * @param offset        The index of the first byte of the IPv4 header.
+     * @param length        The number of bytes of the packet in the buffer,
+     *                      which may be less than its total length if it was
+     *                      captured truncated.
+     * @param interfaceType The interface the packet was received on.
+     * @return true if the packet was read, false if it is not an IPv4 packet
+     * or its header is cut short.
+     */
+    public boolean wrap(ByteBuffer buffer, int offset, int length, String interfaceType) {
+        if (length < MIN_HEADER_LENGTH) {
+            return false;
+        }
+        int first = buffer.get(offset) & 0xff;
+        int headerLength = (first & 0x0f) * 4;
+        int totalLength = getShort(buffer, offset + 2);
+        if (first >>> 4 != 4 || headerLength < MIN_HEADER_LENGTH || headerLength > length
+                    || totalLength < headerLength) {
+            return false;
+        }
+        this.buffer = buffer;
+        this.offset = offset;
+        this.totalLength = totalLength;
+        int available = Math.min(length, totalLength);
+        int timeToLive = buffer.get(offset + 8) & 0xff;
+        int protocol = buffer.get(offset + 9) & 0xff;
+        boolean firstFragment = (getShort(buffer, offset + 6) & 0x1fff) == 0;
+        this.transport = -1;
+        this.transportChecksum = -1;
+        int sourcePort = 0;
+        int destinationPort = 0;
+        if ((protocol == TCP || protocol == UDP) && firstFragment
+                    && headerLength + 4 <= available) {
+            this.transport = offset + headerLength;
+            sourcePort = getShort(buffer, this.transport);
+            destinationPort = getShort(buffer, this.transport + 2);
+            int checksum = this.transport + (protocol == TCP ? 16 : 6);
+            // A UDP checksum of 0 means the sender did not compute one.
+            if (checksum + 2 <= offset + available
+                        && (protocol == TCP || getShort(buffer, checksum) != 0)) {
+                this.transportChecksum = checksum;
+            }
+        }
+        this.setFields(interfaceType, new IPv4Address(getInt(buffer, offset + 12)),
+                       new IPv4Address(getInt(buffer, offset + 16)), protocol, timeToLive,
+                       sourcePort, destinationPort);
+        return true;
+    }
+
+    /**
+     * Get the buffer holding the packet.
+     *
+     * @return The buffer.
+     */
+    public ByteBuffer getBuffer() {
+        return this.buffer;
+    }
+
+    /**
+     * Get the index of the first byte of the packet in its buffer.
+     *
+     * @return The offset.
+     */
+    public int getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * Get the length of the packet given in its header.
+     *
+     * @return The total length in bytes.
+     */
+    public int getTotalLength() {
+        return this.totalLength;
+    }
+
+    /**
+     * Decrement the TTL, in the packet too.
+     */
+    @Override
+    public void decrementTTL() {
+        super.decrementTTL();
+        if (this.getTimeToLive() < 0) {
+            return;
+        }
+        // The TTL shares its 16 bit word of the checksum with the protocol.
+        int before = getShort(this.buffer, this.offset + 8);
+        this.buffer.put(this.offset + 8, (byte) this.getTimeToLive());
+        this.updateChecksum(this.offset + 10, before, getShort(this.buffer, this.offset + 8));
+    }
+
+    /**
+     * Set the source address, in the packet too.
+     *
+     * @param source The new source address.
+     */
+    @Override
+    public void setSourceAddress(IPv4Address source) {
+        super.setSourceAddress(source);
+        this.rewriteAddress(this.offset + 12, source.getBits());
+    }
+
+    /**
+     * Set the destination address, in the packet too.
+     *
+     * @param destinationAddress The new destination address.
+     */
+    @Override
+    public void setDestinationAddress(IPv4Address destinationAddress) {
+        super.setDestinationAddress(destinationAddress);
+        this.rewriteAddress(this.offset + 16, destinationAddress.getBits());
+    }
+
+    /**
+     * Set the source port number, in the packet too if it has ports.
+     *
+     * @param sourcePortNumber The new source port number.
+     */
+    @Override
+    public void setSourcePortNumber(int sourcePortNumber) {
+        super.setSourcePortNumber(sourcePortNumber);
+        if (this.transport >= 0) {
+            this.rewritePort(this.transport, sourcePortNumber);
+        }
+    }
+
+    /**
+     * Set the destination port number, in the packet too if it has ports.
+     *
+     * @param destinationPortNumber The new destination port number.
+     */
+    @Override
+    public void setDestinationPortNumber(int destinationPortNumber) {
+        super.setDestinationPortNumber(destinationPortNumber);
+        if (this.transport >= 0) {
+            this.rewritePort(this.transport + 2, destinationPortNumber);
+        }
+    }
+
+    /**
+     * Write an address into the header, updating the header checksum and,
+     * since the TCP and UDP checksums cover the addresses too, the transport
+     * checksum.
+     *
+     * @param index The index of the address.
+     * @param bits  The new address bits.
+     */
+    private void rewriteAddress(int index, int bits) {
+        int before = getInt(this.buffer, index);
+        putShort(this.buffer, index, bits >>> 16);
+        putShort(this.buffer, index + 2, bits);
+        for (int shift = 16; shift >= 0; shift -= 16) {
+            int oldWord = before >>> shift & 0xffff;
+            int newWord = bits >>> shift & 0xffff;
+            this.updateChecksum(this.offset + 10, oldWord, newWord);
+            this.updateTransportChecksum(oldWord, newWord);
+        }
+    }
+
+    /**
+     * Write a port into the TCP or UDP header, updating its checksum.
+     *
+     * @param index The index of the port.
+     * @param port  The new port number.
+     */
+    private void rewritePort(int index, int port) {
+        int before = getShort(this.buffer, index);
+        putShort(this.buffer, index, port);
+        this.updateTransportChecksum(before, port & 0xffff);
+    }
+
+    /**
+     * Update the TCP or UDP checksum, if there is one, for a changed word.
+     *
+     * @param oldWord The old 16 bit word.
+     * @param newWord The new 16 bit word.
+     */
+    private void updateTransportChecksum(int oldWord, int newWord) {
+        if (this.transportChecksum < 0) {
+            return;
+        }
+        this.updateChecksum(this.transportChecksum, oldWord, newWord);
+        // A UDP checksum that comes to 0 is sent as all ones, as 0 means none.
+        if (this.getProtocolNumber() == UDP
+                    && getShort(this.buffer, this.transportChecksum) == 0) {
+            putShort(this.buffer, this.transportChecksum, 0xffff);
+        }
+    }
+
+    /**
+     * Update a ones' complement checksum for a changed word, without summing
+     * the rest of what it covers again: HC' = ~(~HC + ~m + m'), from RFC 1624.
+     *
+     * @param index   The index of the checksum.
+     * @param oldWord The old 16 bit word.
+     * @param newWord The new 16 bit word.
+     */
+    private void updateChecksum(int index, int oldWord, int newWord) {
+        int sum = (~getShort(this.buffer, index) & 0xffff) + (~oldWord & 0xffff) + newWord;
+        sum = (sum & 0xffff) + (sum >>> 16);
+        sum = (sum & 0xffff) + (sum >>> 16);
+        putShort(this.buffer, index, ~sum);
+    }
+
+    /**
+     * Read a 32 bit word in network byte order, whatever the order of the
+     * buffer.
+     *
+     * @param buffer The buffer.
+     * @param index  The index of the word.
+     * @return The word.
+     */
+    private static int getInt(ByteBuffer buffer, int index) {
+        return getShort(buffer, index) << 16 | getShort(buffer, index + 2);
+    }
+
+    /**
+     * Read an unsigned 16 bit word in network byte order.
+     *
+     * @param buffer The buffer.
+     * @param index  The index of the word.
+     * @return The word.
+     */
+    private static int getShort(ByteBuffer buffer, int index) {
+        return (buffer.get(index) & 0xff) << 8 | buffer.get(index + 1) & 0xff;
+    }
+
+    /**
+     * Write a 16 bit word in network byte order.
+     *
+     * @param buffer The buffer.
+     * @param index  The index of the word.
+     * @param word   The word, in its low 16 bits.
+     */
+    private static void putShort(ByteBuffer buffer, int index, int word) {
+        buffer.put(index, (byte) (word >>> 8));
+        buffer.put(index + 1, (byte) word);
+    }
+}
@@ -0,0 +1,147 @@
+package src.router;
+
+import src.address.GatewayAddress;
+import src.binarysearchtrie.NextHopTable;
+import src.tables.ARPTable;
+import src.tables.RoutingTableEntry;
+
+/**
+ * Caches the forwarding details of every next hop, indexed by next hop id:
+ * the gateway, the outgoing interface, whether it is point to point or
+ * directly connected, and the gateway's MAC address. Once the route lookup
+ * engine gives a next hop id, routing a pdu only needs one array index
+ * instead of an ARP table lookup per pdu.
+ * <p>
+ * The table is rebuilt when the ARP table changes or the next hop table
+ * numbers new next hops. Directly connected next hops have no MAC address of
+ * their own, since it depends on the destination.
+ *
+ * @author silval
+ * @see NextHopTable
+ */
+public class AdjacencyTable {
+    private final NextHopTable nextHops;
+    private final ARPTable arpTable;
+    private GatewayAddress[] gateways;
+    private String[] interfaceTypes;
+    private boolean[] pointToPoint;
+    private boolean[] directlyConnected;
+    // The gateway MAC address, null if not in the ARP table or not needed.
+    private String[] macAddresses;
+    // The ARP table version and next hop count the arrays were built from.
+    private int arpVersion;
+    private int size;
+
+    /**
+     * Create the adjacency table for the given next hops.
+     *
+     * @param nextHops The next hop table of the route lookup engine.
+     * @param arpTable The ARP table.
+     */
+    public AdjacencyTable(NextHopTable nextHops, ARPTable arpTable) {
+        this.nextHops = nextHops;
+        this.arpTable = arpTable;
+        this.rebuild();
+    }
+
+    /**
+     * Determine if the table still matches the ARP table and next hops.
+     *
+     * @return true if no rebuild is needed, false otherwise.
+     */
+    public boolean isCurrent() {
+        return this.arpVersion == this.arpTable.getVersion()
+                && this.size == this.nextHops.size();
+    }
+
+    /**
+     * Rebuild the table from the next hops and the ARP table.
+     */
+    public void rebuild() {
+        int size = this.nextHops.size();
+        GatewayAddress[] gateways = new GatewayAddress[size];
+        String[] interfaceTypes = new String[size];
+        boolean[] pointToPoint = new boolean[size];
+        boolean[] directlyConnected = new boolean[size];
+        String[] macAddresses = new String[size];
+        for (int id = 0; id < size; ++id) {
+            RoutingTableEntry entry = this.nextHops.getEntry(id);
+            GatewayAddress gateway = entry.getGatewayAddress();
+            gateways[id] = gateway;
+            interfaceTypes[id] = entry.getInterfaceType();
+            if (entry.isPointToPoint()) {
+                pointToPoint[id] = true;
+            } else if (gateway.getBits() == 0) {
+                directlyConnected[id] = true;
+            } else if (this.arpTable.hasARPEntry(gateway)) {
+                macAddresses[id] = this.arpTable.getARPEntry(gateway);
+            }
+        }
+        this.gateways = gateways;
+        this.interfaceTypes = interfaceTypes;
+        this.pointToPoint = pointToPoint;
+        this.directlyConnected = directlyConnected;
+        this.macAddresses = macAddresses;
+        this.arpVersion = this.arpTable.getVersion();
+        this.size = size;
+    }
+
+    /**
+     * Get the gateway of a next hop.
+     *
+     * @param id The next hop id.
+     * @return The gateway address.
+     */
+    public GatewayAddress getGateway(int id) {
+        return this.gateways[id];
+    }
+
+    /**
+     * Get the outgoing interface of a next hop.
+     *
+     * @param id The next hop id.
+     * @return The interface type.
+     */
+    public String getInterfaceType(int id) {
+        return this.interfaceTypes[id];
+    }
+
+    /**
+     * Determine if a next hop is point to point.
+     *
+     * @param id The next hop id.
+     * @return true if point to point, false otherwise.
+     */
+    public boolean isPointToPoint(int id) {
+        return this.pointToPoint[id];
+    }
+
+    /**
+     * Determine if a next hop is directly connected.
+     *
+     * @param id The next hop id.
+     * @return true if the gateway address is zero and not point to point.
+     */
+    public boolean isDirectlyConnected(int id) {
+        return this.directlyConnected[id];
+    }
+
+    /**
+     * Get the MAC address of a next hop's gateway.
+     *
+     * @param id The next hop id.
+     * @return The MAC address, or null if the gateway is not in the ARP table.
+     */
+    public String getMacAddress(int id) {
+        return this.macAddresses[id];
+    }
+
+    /**
+     * Get the number of next hops in the table.
+     *
+     * @return The size of the table.
+     */
+    public int size() {
+        return this.size;
+    }
+}
@@ -0,0 +1,89 @@
+package src.router;
+
+/**
+ * Counts the forwarding decisions made for a stream of pdus: forwarded to a
+ * gateway, to a directly connected host or over a point to point link,
+ * stopped by an ARP miss or an expired TTL, or without a route. Pdus that
+ * could not be read are counted as skipped, and pdus whose addresses or ports
+ * NAT rewrote are also counted as translated.
+ * <p>
+ * A counter is not thread safe.
+ *
+ * @author silval
+ */
+public class DecisionCounter {
+    private static final String[] NAMES = {"via gateway", "directly connected",
+            "point to point", "ARP miss", "TTL expired", "no route", "skipped"};
+    private static final int GATEWAY = 0;
+    private static final int DIRECTLY_CONNECTED = 1;
+    private static final int POINT_TO_POINT = 2;
+    private static final int ARP_MISS = 3;
+    private static final int TTL_EXPIRED = 4;
+    private static final int NO_ROUTE = 5;
+    private static final int SKIPPED = 6;
+
+    private final long[] counts = new long[NAMES.length];
+    private long translated;
+
+    /**
+     * Count the decision made for a routed pdu. ARP misses are only told
+     * apart when the router defers them.
+     *
+     * @param route      The route, or null if there was none.
+     * @param translated true if NAT rewrote the pdu.
+     */
+    public void count(Route route, boolean translated) {
+        if (route == null) {
+            this.counts[NO_ROUTE]++;
+            return;
+        }
+        if (translated) {
+            this.translated++;
+        }
+        if (route.getPDU().getTimeToLive() <= 0) {
+            this.counts[TTL_EXPIRED]++;
+        } else if (route.isPointToPoint()) {
+            this.counts[POINT_TO_POINT]++;
+        } else if (route.getUnresolvedAddress() != null) {
+            this.counts[ARP_MISS]++;
+        } else if (route.isDirectlyConnected()) {
+            this.counts[DIRECTLY_CONNECTED]++;
+        } else {
+            this.counts[GATEWAY]++;
+        }
+    }
+
+    /**
+     * Count a pdu that could not be read.
+     */
+    public void countSkipped() {
+        this.counts[SKIPPED]++;
+    }
+
+    /**
+     * Get the number of pdus counted.
+     *
+     * @return The total of every decision.
+     */
+    public long getTotal() {
+        long total = 0;
+        for (long count : this.counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Print each decision with its count and share of the pdus to
+     * System.err.
+     */
+    public void print() {
+        long total = this.getTotal();
+        for (int i = 0; i < NAMES.length; ++i) {
+            System.err.printf("  %-20s %12d %6.1f%%\n", NAMES[i], this.counts[i],
+                              total == 0 ? 0.0 : 100.0 * this.counts[i] / total);
+        }
+        System.err.printf("  %-20s %12d %6.1f%%\n", "translated by NAT", this.translated,
+                          total == 0 ? 0.0 : 100.0 * this.translated / total);
+    }
+}
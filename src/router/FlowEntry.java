@@ -0,0 +1,102 @@
+package src.router;
+
+import src.address.IPv4Address;
+
+/**
+ * The forwarding and translation decision made for the first pdu of a flow,
+ * replayed for the later pdus of the flow by the flow table. Entries are
+ * reused when their flow is evicted, so the flow table never allocates once
+ * it is full.
+ *
+ * @author silval
+ * @see FlowTable
+ */
+public class FlowEntry {
+    // The next hop id the flow is routed to.
+    private int nextHop;
+    // The MAC address the flow is sent to, null if point to point.
+    private String macAddress;
+    // The original source a received pdu is translated back to, null if none.
+    private IPv4Address originalDestination;
+    private int originalDestinationPort;
+    // The NAT address a sent pdu is translated to, null if none.
+    private IPv4Address translatedSource;
+    private int translatedSourcePort;
+
+    /**
+     * Set the decision for a new flow.
+     *
+     * @param nextHop             The next hop id.
+     * @param macAddress          The MAC address, null if point to point.
+     * @param originalDestination The destination after translating a received
+     *                            pdu back, null if it was not translated.
+     * @param originalPort        The destination port after translating back.
+     * @param translatedSource    The source after translating a sent pdu, null
+     *                            if it was not translated.
+     * @param translatedPort      The source port after translating.
+     */
+    void setDecision(int nextHop, String macAddress, IPv4Address originalDestination,
+                     int originalPort, IPv4Address translatedSource, int translatedPort) {
+        this.nextHop = nextHop;
+        this.macAddress = macAddress;
+        this.originalDestination = originalDestination;
+        this.originalDestinationPort = originalPort;
+        this.translatedSource = translatedSource;
+        this.translatedSourcePort = translatedPort;
+    }
+
+    /**
+     * Get the next hop id the flow is routed to.
+     *
+     * @return The adjacency table index.
+     */
+    public int getNextHop() {
+        return this.nextHop;
+    }
+
+    /**
+     * Get the MAC address the flow is sent to.
+     *
+     * @return The MAC address, or null if point to point.
+     */
+    public String getMacAddress() {
+        return this.macAddress;
+    }
+
+    /**
+     * Get the destination received pdus of the flow are translated back to.
+     *
+     * @return The original source address, or null if not translated.
+     */
+    public IPv4Address getOriginalDestination() {
+        return this.originalDestination;
+    }
+
+    /**
+     * Get the destination port received pdus of the flow are translated back
+     * to.
+     *
+     * @return The original source port.
+     */
+    public int getOriginalDestinationPort() {
+        return this.originalDestinationPort;
+    }
+
+    /**
+     * Get the source sent pdus of the flow are translated to.
+     *
+     * @return The NAT address, or null if not translated.
+     */
+    public IPv4Address getTranslatedSource() {
+        return this.translatedSource;
+    }
+
+    /**
+     * Get the source port sent pdus of the flow are translated to.
+     *
+     * @return The translated source port.
+     */
+    public int getTranslatedSourcePort() {
+        return this.translatedSourcePort;
+    }
+}
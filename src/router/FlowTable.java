@@ -0,0 +1,308 @@
+package src.router;
+
+import java.util.Arrays;
+
+/**
+ * A fixed size table of the flows seen by the router, keyed on the source,
+ * destination, protocol, source port and destination port of their pdus. Each
+ * flow keeps the complete decision made for its first pdu, so the later pdus
+ * of the flow are routed with one hash probe, skipping the route lookup, the
+ * ARP lookup and the NAT table searches.
+ * <p>
+ * Like the route cache, flows are kept in fixed arrays indexed by slot and
+ * found through an open addressed hash index twice the size. A flow not seen
+ * for the idle timeout is expired when it is next looked up, or when the clock
+ * hand passes it looking for a slot. When the table is full of active flows,
+ * the CLOCK algorithm evicts the first flow not seen since the last sweep.
+ * <p>
+ * The table does not know when routes, ARP entries or NAT addresses change;
+ * the router clears it whenever they do.
+ *
+ * @author silval
+ * @see FlowEntry
+ */
+public class FlowTable {
+    // The largest number of flows a table can hold.
+    public static final int MAX_CAPACITY = 1 << 24;
+
+    private final int[] sources;
+    private final int[] destinations;
+    private final int[] protocols;
+    private final int[] sourcePorts;
+    private final int[] destinationPorts;
+    // The time each flow was last seen, in System.nanoTime units.
+    private final long[] lastSeen;
+    private final boolean[] referenced;
+    private final FlowEntry[] entries;
+    // Slot plus one of the flow for each hash bucket, 0 if empty.
+    private final int[] index;
+    // Slots freed by expired flows, reused before the clock hand runs.
+    private final int[] freeSlots;
+    private int freeCount;
+    private final long idleTimeout;
+    private int size;
+    private int nextSlot;
+    private int hand;
+    private long hits;
+    private long misses;
+    private long expirations;
+    private long evictions;
+
+    /**
+     * Create an empty flow table.
+     *
+     * @param capacity    The number of flows kept, from 1 to MAX_CAPACITY.
+     * @param idleTimeout The time in nanoseconds after which an idle flow is
+     *                    expired.
+     * @throws IllegalArgumentException If the capacity is out of range.
+     */
+    public FlowTable(int capacity, long idleTimeout) {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("flow table size out of range: " + capacity);
+        }
+        this.sources = new int[capacity];
+        this.destinations = new int[capacity];
+        this.protocols = new int[capacity];
+        this.sourcePorts = new int[capacity];
+        this.destinationPorts = new int[capacity];
+        this.lastSeen = new long[capacity];
+        this.referenced = new boolean[capacity];
+        this.entries = new FlowEntry[capacity];
+        this.index = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+        this.freeSlots = new int[capacity];
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Get the decision of a flow, if it is known and not idle.
+     *
+     * @param source          The source address bits.
+     * @param destination     The destination address bits.
+     * @param protocol        The protocol number.
+     * @param sourcePort      The source port.
+     * @param destinationPort The destination port.
+     * @param now             The current time, in System.nanoTime units.
+     * @return The flow entry, or null if the flow is unknown or expired.
+     */
+    public FlowEntry get(int source, int destination, int protocol, int sourcePort,
+                         int destinationPort, long now) {
+        int mask = this.index.length - 1;
+        int bucket = hash(source, destination, protocol, sourcePort, destinationPort) & mask;
+        for (; this.index[bucket] != 0; bucket = (bucket + 1) & mask) {
+            int slot = this.index[bucket] - 1;
+            if (this.matches(slot, source, destination, protocol, sourcePort, destinationPort)) {
+                if (now - this.lastSeen[slot] > this.idleTimeout) {
+                    this.free(slot);
+                    this.expirations++;
+                    break;
+                }
+                this.lastSeen[slot] = now;
+                this.referenced[slot] = true;
+                this.hits++;
+                return this.entries[slot];
+            }
+        }
+        this.misses++;
+        return null;
+    }
+
+    /**
+     * Add a flow that is not in the table, making room for it if the table
+     * is full. The caller sets the decision on the returned entry.
+     *
+     * @param source          The source address bits.
+     * @param destination     The destination address bits.
+     * @param protocol        The protocol number.
+     * @param sourcePort      The source port.
+     * @param destinationPort The destination port.
+     * @param now             The current time, in System.nanoTime units.
+     * @return The entry for the flow's decision.
+     */
+    public FlowEntry put(int source, int destination, int protocol, int sourcePort,
+                         int destinationPort, long now) {
+        int slot = this.allocate(now);
+        this.sources[slot] = source;
+        this.destinations[slot] = destination;
+        this.protocols[slot] = protocol;
+        this.sourcePorts[slot] = sourcePort;
+        this.destinationPorts[slot] = destinationPort;
+        this.lastSeen[slot] = now;
+        this.referenced[slot] = false;
+        if (this.entries[slot] == null) {
+            this.entries[slot] = new FlowEntry();
+        }
+        int mask = this.index.length - 1;
+        int bucket = hash(source, destination, protocol, sourcePort, destinationPort) & mask;
+        while (this.index[bucket] != 0) {
+            bucket = (bucket + 1) & mask;
+        }
+        this.index[bucket] = slot + 1;
+        this.size++;
+        return this.entries[slot];
+    }
+
+    /**
+     * Find a slot for a new flow: a freed slot, a never used slot, or the slot
+     * of the first flow the clock hand finds idle or not seen since its last
+     * sweep.
+     *
+     * @param now The current time, in System.nanoTime units.
+     * @return The free slot.
+     */
+    private int allocate(long now) {
+        if (this.freeCount > 0) {
+            return this.freeSlots[--this.freeCount];
+        }
+        if (this.nextSlot < this.sources.length) {
+            return this.nextSlot++;
+        }
+        while (true) {
+            int slot = this.hand;
+            this.hand = (this.hand + 1) % this.sources.length;
+            if (now - this.lastSeen[slot] > this.idleTimeout) {
+                this.expirations++;
+            } else if (this.referenced[slot]) {
+                this.referenced[slot] = false;
+                continue;
+            } else {
+                this.evictions++;
+            }
+            this.free(slot);
+            return this.freeSlots[--this.freeCount];
+        }
+    }
+
+    /**
+     * Remove a flow, shifting back the flows after it in its probe run so that
+     * none of them becomes unreachable, and put its slot on the free list.
+     *
+     * @param slot The slot of the flow.
+     */
+    private void free(int slot) {
+        int mask = this.index.length - 1;
+        int bucket = this.home(slot, mask);
+        while (this.index[bucket] != slot + 1) {
+            bucket = (bucket + 1) & mask;
+        }
+        int next = (bucket + 1) & mask;
+        while (this.index[next] != 0) {
+            int home = this.home(this.index[next] - 1, mask);
+            // Move the flow back if its home bucket is not between the hole and it.
+            if (((next - home) & mask) >= ((next - bucket) & mask)) {
+                this.index[bucket] = this.index[next];
+                bucket = next;
+            }
+            next = (next + 1) & mask;
+        }
+        this.index[bucket] = 0;
+        this.freeSlots[this.freeCount++] = slot;
+        this.size--;
+    }
+
+    /**
+     * Remove every flow, keeping the counters.
+     */
+    public void clear() {
+        Arrays.fill(this.index, 0);
+        this.freeCount = 0;
+        this.nextSlot = 0;
+        this.hand = 0;
+        this.size = 0;
+    }
+
+    /**
+     * Determine if a slot holds the given flow.
+     *
+     * @param slot            The slot.
+     * @param source          The source address bits.
+     * @param destination     The destination address bits.
+     * @param protocol        The protocol number.
+     * @param sourcePort      The source port.
+     * @param destinationPort The destination port.
+     * @return true if the slot's key is the flow's.
+     */
+    private boolean matches(int slot, int source, int destination, int protocol, int sourcePort,
+                            int destinationPort) {
+        return this.sources[slot] == source && this.destinations[slot] == destination
+                       && this.sourcePorts[slot] == sourcePort
+                       && this.destinationPorts[slot] == destinationPort
+                       && this.protocols[slot] == protocol;
+    }
+
+    /**
+     * Get the home bucket of the flow in a slot.
+     *
+     * @param slot The slot.
+     * @param mask The index size minus one.
+     * @return The bucket.
+     */
+    private int home(int slot, int mask) {
+        return hash(this.sources[slot], this.destinations[slot], this.protocols[slot],
+                    this.sourcePorts[slot], this.destinationPorts[slot]) & mask;
+    }
+
+    /**
+     * Hash a flow key, mixing each field in with a multiply so that flows
+     * differing in any one of them spread over the buckets.
+     *
+     * @param source          The source address bits.
+     * @param destination     The destination address bits.
+     * @param protocol        The protocol number.
+     * @param sourcePort      The source port.
+     * @param destinationPort The destination port.
+     * @return The hash.
+     */
+    private static int hash(int source, int destination, int protocol, int sourcePort,
+                            int destinationPort) {
+        long h = source;
+        h = h * 0x9E3779B97F4A7C15L + destination;
+        h = h * 0x9E3779B97F4A7C15L + ((long) sourcePort << 32 | (destinationPort & 0xffffffffL));
+        h = h * 0x9E3779B97F4A7C15L + protocol;
+        return (int) ((h * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    /**
+     * Get the number of flows in the table.
+     *
+     * @return The size of the table.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Get the number of pdus routed from a known flow.
+     *
+     * @return The hit count.
+     */
+    public long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * Get the number of pdus whose flow was unknown or had expired.
+     *
+     * @return The miss count.
+     */
+    public long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * Get the number of flows removed after being idle for the timeout.
+     *
+     * @return The expiration count.
+     */
+    public long getExpirations() {
+        return this.expirations;
+    }
+
+    /**
+     * Get the number of active flows evicted to make room.
+     *
+     * @return The eviction count.
+     */
+    public long getEvictions() {
+        return this.evictions;
+    }
+}
@@ -0,0 +1,326 @@
+package src.router;
+
+import src.pdu.IPv4PDU;
+import src.pdu.MutablePDU;
+import src.pdu.PDUParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Routes pdus on several threads in three stages connected by bounded queues:
+ * parser threads turn batches of lines into pdus, forwarding workers route
+ * them, and an output thread hands the routes to a handler in input order.
+ * <p>
+ * Each forwarding worker has its own router, and gets the pdus whose remote
+ * endpoint hashes to it, so both directions of a NAT session are routed in
+ * input order by the router holding its translation. Workers share the route
+ * lookup engine and ARP table, which are only read, and each has its own route
+ * cache, flow table and NAT translations. ARP misses are deferred, and left
+ * to the handler to report with their route, as a RouteWriter does.
+ * <p>
+ * Blank lines are skipped, and malformed lines are counted and skipped, as a
+ * PDUReader does. The reading thread stops at the end of the input, or once
+ * the handler stops or a pdu could not be routed, so the output is the same
+ * as routing the pdus one at a time. Only NAT source ports can differ, since
+ * each worker picks them from its own translations.
+ *
+ * @author silval
+ * @see Router#hashRemoteEndpoint(IPv4PDU)
+ */
+public class ForwardingPipeline {
+    // The number of lines passed between the stages together.
+    private static final int BATCH_SIZE = 256;
+    // The number of batches each queue holds.
+    private static final int QUEUE_SIZE = 64;
+    // Marks the end of the input in the queues.
+    private static final Batch END = new Batch(0);
+
+    private final Router[] routers;
+    private final Thread[] parsers;
+    private final Thread[] workers;
+    private final BlockingQueue<Batch> parseQueue;
+    private final BlockingQueue<Batch>[] workQueues;
+    private final BlockingQueue<Batch> outputQueue;
+    private volatile boolean stopped;
+    // The lines handed to the output, and the malformed ones among them.
+    private long lines;
+    private long malformedLines;
+
+    /**
+     * Create a pipeline for the given routers, one forwarding worker each.
+     *
+     * @param routers The routers.
+     * @param parsers The number of parser threads.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ForwardingPipeline(Router[] routers, int parsers) {
+        this.routers = routers;
+        this.parsers = new Thread[parsers];
+        this.workers = new Thread[routers.length];
+        this.parseQueue = new ArrayBlockingQueue<Batch>(QUEUE_SIZE);
+        this.workQueues = new BlockingQueue[routers.length];
+        this.outputQueue = new ArrayBlockingQueue<Batch>(QUEUE_SIZE);
+        for (int w = 0; w < routers.length; ++w) {
+            routers[w].setDeferArpMisses(true);
+            this.workQueues[w] = new ArrayBlockingQueue<Batch>(QUEUE_SIZE);
+        }
+    }
+
+    /**
+     * Route the pdus read from the input, passing each route to the handler
+     * in input order.
+     *
+     * @param input   The input, one pdu per line.
+     * @param handler Receives each route, or null where there is no route.
+     * @return true if every pdu was routed and handled, false if the pipeline
+     * stopped at a pdu that could not be routed, or when the handler returned
+     * false.
+     * @throws IOException          If the input could not be read.
+     * @throws InterruptedException If interrupted while waiting for a stage.
+     */
+    public boolean run(BufferedReader input, RouteHandler handler)
+            throws IOException, InterruptedException {
+        boolean[] completed = new boolean[1];
+        Thread output = new Thread(() -> completed[0] = this.output(handler), "pipeline-output");
+        for (int p = 0; p < this.parsers.length; ++p) {
+            this.parsers[p] = new Thread(this::parse, "pipeline-parser-" + p);
+        }
+        for (int w = 0; w < this.workers.length; ++w) {
+            int worker = w;
+            this.workers[w] = new Thread(() -> this.forward(worker), "pipeline-worker-" + w);
+        }
+        output.start();
+        for (Thread thread : this.parsers) {
+            thread.start();
+        }
+        for (Thread thread : this.workers) {
+            thread.start();
+        }
+        try {
+            this.read(input);
+            output.join();
+        } finally {
+            this.stopped = true;
+            output.interrupt();
+            for (Thread thread : this.parsers) {
+                thread.interrupt();
+                thread.join();
+            }
+            for (Thread thread : this.workers) {
+                thread.interrupt();
+                thread.join();
+            }
+            output.join();
+        }
+        return completed[0];
+    }
+
+    /**
+     * Get the number of lines read up to where the run ended, blank lines
+     * excepted. Call once the run has ended.
+     *
+     * @return The line count.
+     */
+    public long getLines() {
+        return this.lines;
+    }
+
+    /**
+     * Get the number of malformed lines skipped up to where the run ended.
+     * Call once the run has ended.
+     *
+     * @return The malformed line count.
+     */
+    public long getMalformedLines() {
+        return this.malformedLines;
+    }
+
+    /**
+     * Read batches of lines, skipping blank lines, and queue each to every
+     * stage, until the end of the input or the pipeline stops.
+     *
+     * @param input The input.
+     * @throws IOException          If the input could not be read.
+     * @throws InterruptedException If interrupted while waiting for a stage.
+     */
+    private void read(BufferedReader input) throws IOException, InterruptedException {
+        boolean done = false;
+        while (!done && !this.stopped) {
+            Batch batch = new Batch(this.workers.length);
+            String line;
+            while (batch.count < BATCH_SIZE && (line = input.readLine()) != null) {
+                if (line.length() == 0) {
+                    continue;
+                }
+                batch.lines[batch.count++] = line;
+            }
+            done = batch.count < BATCH_SIZE;
+            if (batch.count == 0) {
+                break;
+            }
+            // Queued for output first, so the output thread always waits on a batch
+            // already queued to the stages that complete it.
+            this.put(this.outputQueue, batch);
+            this.put(this.parseQueue, batch);
+            for (BlockingQueue<Batch> queue : this.workQueues) {
+                this.put(queue, batch);
+            }
+        }
+        this.put(this.outputQueue, END);
+    }
+
+    /**
+     * Queue a batch, giving up if the pipeline stops while the queue is full.
+     *
+     * @param queue The queue.
+     * @param batch The batch.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private void put(BlockingQueue<Batch> queue, Batch batch) throws InterruptedException {
+        while (!this.stopped && !queue.offer(batch, 10, TimeUnit.MILLISECONDS)) {
+            // Retry until there is room or the output thread stopped the pipeline.
+        }
+    }
+
+    /**
+     * Parse the lines of batches into pdus, and pick the worker that routes
+     * each, until interrupted. Each parser thread has its own PDUParser.
+     */
+    private void parse() {
+        PDUParser parser = new PDUParser();
+        MutablePDU parsed = new MutablePDU();
+        try {
+            while (true) {
+                Batch batch = this.parseQueue.take();
+                for (int i = 0; i < batch.count; ++i) {
+                    if (!parser.parse(batch.lines[i], parsed)) {
+                        batch.malformed[i] = true;
+                        continue;
+                    }
+                    try {
+                        batch.pdus[i] = new IPv4PDU(parsed, parser.getInterfaceName(
+                                parsed.getInterfaceId()));
+                        int hash = this.routers[0].hashRemoteEndpoint(batch.pdus[i]);
+                        batch.workers[i] = (int) (((hash & 0xffffffffL) * this.workers.length)
+                                                          >>> 32);
+                    } catch (Exception e) {
+                        batch.failed[i] = true;
+                    }
+                }
+                batch.parsed.countDown();
+            }
+        } catch (InterruptedException e) {
+            // The pipeline is shutting down.
+        }
+    }
+
+    /**
+     * Route the pdus of each batch that belong to a worker, in order, until
+     * interrupted.
+     *
+     * @param worker The worker.
+     */
+    private void forward(int worker) {
+        Router router = this.routers[worker];
+        BlockingQueue<Batch> queue = this.workQueues[worker];
+        try {
+            while (true) {
+                Batch batch = queue.take();
+                batch.parsed.await();
+                for (int i = 0; i < batch.count; ++i) {
+                    if (batch.workers[i] != worker || batch.malformed[i] || batch.failed[i]) {
+                        continue;
+                    }
+                    try {
+                        batch.routes[i] = router.generateRoute(batch.pdus[i]);
+                    } catch (Exception e) {
+                        batch.failed[i] = true;
+                    }
+                }
+                if (batch.remaining.decrementAndGet() == 0) {
+                    batch.routed.countDown();
+                }
+            }
+        } catch (InterruptedException e) {
+            // The pipeline is shutting down.
+        }
+    }
+
+    /**
+     * Hand the routes of each batch to the handler in order, counting and
+     * skipping malformed lines, until the end of the input, a pdu that could
+     * not be routed, or the handler stops.
+     *
+     * @param handler The route handler.
+     * @return true if every route was handled, false otherwise.
+     */
+    private boolean output(RouteHandler handler) {
+        try {
+            while (true) {
+                Batch batch = this.outputQueue.take();
+                if (batch == END) {
+                    return true;
+                }
+                batch.routed.await();
+                for (int i = 0; i < batch.count; ++i) {
+                    this.lines++;
+                    if (batch.malformed[i]) {
+                        this.malformedLines++;
+                        continue;
+                    }
+                    Route route = batch.failed[i] ? null : batch.routes[i];
+                    if (route == null || !handler.handle(route)) {
+                        return false;
+                    }
+                    // Let the batch's pdus and routes be collected.
+                    batch.routes[i] = null;
+                    batch.pdus[i] = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            return false;
+        } finally {
+            this.stopped = true;
+        }
+    }
+
+    /**
+     * A batch of lines, and the pdus and routes made from them.
+     */
+    private static class Batch {
+        final String[] lines;
+        final IPv4PDU[] pdus;
+        final Route[] routes;
+        // The worker that routes each pdu.
+        final int[] workers;
+        // Whether each line is malformed, and whether each pdu could not be routed.
+        final boolean[] malformed;
+        final boolean[] failed;
+        int count;
+        // Released once the lines are parsed, and once every worker is done.
+        final CountDownLatch parsed = new CountDownLatch(1);
+        final CountDownLatch routed = new CountDownLatch(1);
+        final AtomicInteger remaining;
+
+        /**
+         * Create an empty batch.
+         *
+         * @param workers The number of forwarding workers.
+         */
+        Batch(int workers) {
+            this.lines = new String[BATCH_SIZE];
+            this.pdus = new IPv4PDU[BATCH_SIZE];
+            this.routes = new Route[BATCH_SIZE];
+            this.workers = new int[BATCH_SIZE];
+            this.malformed = new boolean[BATCH_SIZE];
+            this.failed = new boolean[BATCH_SIZE];
+            this.remaining = new AtomicInteger(workers);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package src.router;
+
+import src.binarysearchtrie.LongestPrefixMatcher;
+import src.tables.ARPTable;
+import src.tables.NATTable;
+
+/**
+ * The tables a router forwards with, rebuilt together in the background and
+ * handed to the router to be swapped in as one.
+ *
+ * @author silval
+ * @see Router#replaceTables(LongestPrefixMatcher, ARPTable, NATTable)
+ */
+class ForwardingTables {
+    final LongestPrefixMatcher routingTrie;
+    final ARPTable arpTable;
+    final AdjacencyTable adjacencyTable;
+    // The rebuilt NAT table, or null to keep the router's.
+    final NATTable natTable;
+
+    /**
+     * Create the tables, building the adjacency table of the new next hops.
+     *
+     * @param routingTrie The route lookup engine.
+     * @param arpTable    The ARP table.
+     * @param natTable    The NAT table, or null to keep the router's.
+     */
+    ForwardingTables(LongestPrefixMatcher routingTrie, ARPTable arpTable, NATTable natTable) {
+        this.routingTrie = routingTrie;
+        this.arpTable = arpTable;
+        this.adjacencyTable = new AdjacencyTable(routingTrie.getNextHops(), arpTable);
+        this.natTable = natTable;
+    }
+}
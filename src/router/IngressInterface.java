@@ -0,0 +1,143 @@
+package src.router;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An ingress interface of the router: the queue of pdus received on it that
+ * are waiting to be routed, the router that routes them, and its counters.
+ * <p>
+ * An interface holds no thread. When a pdu arrives on an idle interface, the
+ * interface is scheduled on the shared pool of the IngressScheduler, and it
+ * drains its queue until it is empty again, so an interface that sees no
+ * traffic costs nothing but its queue.
+ *
+ * @author silval
+ * @see IngressScheduler
+ */
+public class IngressInterface {
+    private final String name;
+    private final Router router;
+    private final int capacity;
+    final ConcurrentLinkedQueue<IngressScheduler.Packet> queue =
+            new ConcurrentLinkedQueue<IngressScheduler.Packet>();
+    // Whether the interface is scheduled on, or draining on, the pool.
+    final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicInteger depth = new AtomicInteger();
+    // Counted by the thread receiving the pdus.
+    private long packets;
+    private long drops;
+    private long totalDepth;
+    private int maxDepth;
+
+    /**
+     * Create an idle interface.
+     *
+     * @param name     The interface name, such as eth0.
+     * @param router   The router that routes the pdus received on it.
+     * @param capacity The most pdus waiting in its queue.
+     */
+    IngressInterface(String name, Router router, int capacity) {
+        this.name = name;
+        this.router = router;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Count a pdu received on the interface, and take it into the queue
+     * unless the queue is full.
+     *
+     * @param packet The pdu.
+     * @return true if it was queued, false if it was dropped.
+     */
+    boolean receive(IngressScheduler.Packet packet) {
+        this.packets++;
+        int depth = this.depth.get();
+        this.totalDepth += depth;
+        if (depth >= this.capacity) {
+            this.drops++;
+            return false;
+        }
+        this.maxDepth = Math.max(this.maxDepth, depth + 1);
+        this.depth.incrementAndGet();
+        this.queue.offer(packet);
+        return true;
+    }
+
+    /**
+     * Take the next pdu from the queue.
+     *
+     * @return The pdu, or null if the queue is empty.
+     */
+    IngressScheduler.Packet poll() {
+        IngressScheduler.Packet packet = this.queue.poll();
+        if (packet != null) {
+            this.depth.decrementAndGet();
+        }
+        return packet;
+    }
+
+    /**
+     * Get the interface name.
+     *
+     * @return The name.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Get the router that routes the pdus received on this interface.
+     *
+     * @return The router.
+     */
+    public Router getRouter() {
+        return this.router;
+    }
+
+    /**
+     * Get the number of pdus received on this interface.
+     *
+     * @return The packet count.
+     */
+    public long getPackets() {
+        return this.packets;
+    }
+
+    /**
+     * Get the number of pdus dropped because the queue was full.
+     *
+     * @return The drop count.
+     */
+    public long getDrops() {
+        return this.drops;
+    }
+
+    /**
+     * Get the number of pdus waiting in the queue.
+     *
+     * @return The queue depth.
+     */
+    public int getQueueDepth() {
+        return this.depth.get();
+    }
+
+    /**
+     * Get the deepest the queue has been.
+     *
+     * @return The largest queue depth.
+     */
+    public int getMaxQueueDepth() {
+        return this.maxDepth;
+    }
+
+    /**
+     * Get the mean number of pdus already waiting when a pdu arrived.
+     *
+     * @return The mean queue depth.
+     */
+    public double getMeanQueueDepth() {
+        return this.packets == 0 ? 0.0 : (double) this.totalDepth / this.packets;
+    }
+}
@@ -0,0 +1,300 @@
+package src.router;
+
+import src.pdu.IPv4PDU;
+import src.pdu.MutablePDU;
+import src.pdu.PDUReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Demultiplexes pdus by the interface they were received on into one queue
+ * per ingress interface, and routes each interface's queue on a shared pool
+ * of threads, with a router of its own per interface.
+ * <p>
+ * An interface is only on the pool while it has pdus queued, and gives up its
+ * thread after a quantum of pdus if it has more, so a few busy interfaces
+ * spread over every thread while hundreds of idle ones cost only their queues.
+ * A pdu arriving when its interface's queue is full is dropped, and counted
+ * against the interface.
+ * <p>
+ * The pdus are read with a PDUReader, which skips blank lines and counts and
+ * skips malformed ones. The routes are handed to the handler in input order,
+ * skipping dropped pdus, and the run stops at the first pdu that could not be
+ * routed, as routing them one at a time does. ARP misses are deferred, and left to the
+ * handler to report with their route, as a RouteWriter does.
+ *
+ * @author silval
+ * @see IngressInterface
+ */
+public class IngressScheduler {
+    // The number of pdus an interface routes before letting others use its thread.
+    private static final int QUANTUM = 64;
+    // The most pdus between the oldest not yet handled and the newest read.
+    private static final int WINDOW = 1 << 16;
+
+    private final Supplier<Router> routerFactory;
+    private final int queueCapacity;
+    private final ExecutorService pool;
+    // Only used by the reading thread while running.
+    private final HashMap<String, IngressInterface> interfaces =
+            new HashMap<String, IngressInterface>();
+    // The pdu read, on the reading thread only.
+    private final MutablePDU parsed = new MutablePDU();
+    // The pdus in flight, by sequence number, guarded by this scheduler.
+    private final Packet[] window = new Packet[WINDOW];
+    private long received;
+    private long delivered;
+    private boolean endOfInput;
+    private volatile boolean stopped;
+    // The lines read up to where the run ended, and the malformed ones among them.
+    private long lines;
+    private long malformedLines;
+
+    /**
+     * Create a scheduler.
+     *
+     * @param routerFactory Creates the router of each new interface.
+     * @param threads       The number of threads in the pool.
+     * @param queueCapacity The most pdus waiting on each interface.
+     */
+    public IngressScheduler(Supplier<Router> routerFactory, int threads, int queueCapacity) {
+        this.routerFactory = routerFactory;
+        this.queueCapacity = queueCapacity;
+        this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "ingress");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Route the pdus read from the input, passing each route to the handler
+     * in input order.
+     *
+     * @param input   The reader of the input, one pdu per line.
+     * @param handler Receives each route, or null where there is no route.
+     * @return true if every pdu was routed or dropped and handled, false if
+     * the run stopped at a pdu that could not be routed, or when the handler
+     * returned false.
+     * @throws IOException          If the input could not be read.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean run(PDUReader input, RouteHandler handler)
+            throws IOException, InterruptedException {
+        boolean[] completed = new boolean[1];
+        Thread output = new Thread(() -> completed[0] = this.output(handler), "ingress-output");
+        output.start();
+        try {
+            while (!this.stopped && input.next(this.parsed)) {
+                this.receive(input);
+            }
+            synchronized (this) {
+                this.endOfInput = true;
+                this.notifyAll();
+            }
+            output.join();
+            if (completed[0]) {
+                this.lines = input.getLines();
+                this.malformedLines = input.getMalformedLines();
+            }
+        } finally {
+            this.stopped = true;
+            output.interrupt();
+            output.join();
+            this.pool.shutdownNow();
+            this.pool.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        return completed[0];
+    }
+
+    /**
+     * Get the number of lines read up to where the run ended, blank lines
+     * excepted. Call once the run has ended.
+     *
+     * @return The line count.
+     */
+    public long getLines() {
+        return this.lines;
+    }
+
+    /**
+     * Get the number of malformed lines skipped up to where the run ended.
+     * Call once the run has ended.
+     *
+     * @return The malformed line count.
+     */
+    public long getMalformedLines() {
+        return this.malformedLines;
+    }
+
+    /**
+     * Queue the pdu just read on the interface it was received on.
+     *
+     * @param input The reader the pdu was read by.
+     * @throws InterruptedException If interrupted while waiting for room.
+     */
+    private void receive(PDUReader input) throws InterruptedException {
+        Packet packet = new Packet();
+        synchronized (this) {
+            while (this.received - this.delivered >= WINDOW && !this.stopped) {
+                this.wait();
+            }
+            packet.sequence = this.received++;
+            this.window[(int) (packet.sequence & (WINDOW - 1))] = packet;
+        }
+        packet.lines = input.getLines();
+        packet.malformedLines = input.getMalformedLines();
+        String name = input.getInterfaceName(this.parsed.getInterfaceId());
+        packet.pdu = new IPv4PDU(this.parsed, name);
+        IngressInterface ingress = this.interfaces.get(name);
+        if (ingress == null) {
+            Router router = this.routerFactory.get();
+            router.setDeferArpMisses(true);
+            ingress = new IngressInterface(name, router, this.queueCapacity);
+            this.interfaces.put(name, ingress);
+        }
+        if (!ingress.receive(packet)) {
+            packet.dropped = true;
+            this.complete(packet);
+        } else if (ingress.scheduled.compareAndSet(false, true)) {
+            IngressInterface scheduled = ingress;
+            this.pool.execute(() -> this.drain(scheduled));
+        }
+    }
+
+    /**
+     * Route up to a quantum of the pdus queued on an interface, then put the
+     * interface back on the pool if it still has pdus, or leave it idle.
+     *
+     * @param ingress The interface.
+     */
+    private void drain(IngressInterface ingress) {
+        Router router = ingress.getRouter();
+        for (int n = 0; n < QUANTUM; ++n) {
+            Packet packet = ingress.poll();
+            if (packet == null) {
+                break;
+            }
+            try {
+                packet.route = router.generateRoute(packet.pdu);
+            } catch (Exception e) {
+                packet.failed = true;
+            }
+            this.complete(packet);
+        }
+        if (ingress.queue.isEmpty()) {
+            ingress.scheduled.set(false);
+            // A pdu queued after the check but before the flag was cleared.
+            if (ingress.queue.isEmpty() || !ingress.scheduled.compareAndSet(false, true)) {
+                return;
+            }
+        }
+        if (!this.stopped) {
+            try {
+                this.pool.execute(() -> this.drain(ingress));
+            } catch (RejectedExecutionException e) {
+                // The run stopped and shut the pool down since the check.
+            }
+        }
+    }
+
+    /**
+     * Mark a pdu as routed or dropped, waking the output thread if it waits
+     * for it.
+     *
+     * @param packet The pdu.
+     */
+    private synchronized void complete(Packet packet) {
+        packet.done = true;
+        if (packet.sequence == this.delivered) {
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Hand the routes to the handler in order, until the end of the input, a
+     * pdu that could not be routed, or the handler stops, which takes the line
+     * counts as far as that pdu.
+     *
+     * @param handler The route handler.
+     * @return true if every route was handled, false otherwise.
+     */
+    private boolean output(RouteHandler handler) {
+        try {
+            while (true) {
+                Packet packet;
+                synchronized (this) {
+                    while (this.delivered == this.received
+                                   ? !this.endOfInput
+                                   : !this.window[(int) (this.delivered & (WINDOW - 1))].done) {
+                        this.wait();
+                    }
+                    if (this.delivered == this.received) {
+                        return true;
+                    }
+                    int slot = (int) (this.delivered & (WINDOW - 1));
+                    packet = this.window[slot];
+                    this.window[slot] = null;
+                    this.delivered++;
+                    if (this.received - this.delivered == WINDOW - 1) {
+                        // The reading thread may be waiting for room.
+                        this.notifyAll();
+                    }
+                }
+                if (packet.dropped) {
+                    continue;
+                }
+                Route route = packet.failed ? null : packet.route;
+                if (route == null || !handler.handle(route)) {
+                    this.lines = packet.lines;
+                    this.malformedLines = packet.malformedLines;
+                    return false;
+                }
+            }
+        } catch (InterruptedException e) {
+            return false;
+        } finally {
+            this.stopped = true;
+            synchronized (this) {
+                this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Get the interfaces that received pdus, by name. Call once the run has
+     * ended.
+     *
+     * @return The interfaces.
+     */
+    public List<IngressInterface> getInterfaces() {
+        List<IngressInterface> interfaces = new ArrayList<IngressInterface>(this.interfaces.values());
+        interfaces.sort(Comparator.comparing(IngressInterface::getName));
+        return interfaces;
+    }
+
+    /**
+     * A pdu in flight, and what became of it.
+     */
+    static class Packet {
+        long sequence;
+        IPv4PDU pdu;
+        Route route;
+        // The lines read up to this pdu, and the malformed ones among them.
+        long lines;
+        long malformedLines;
+        boolean failed;
+        boolean dropped;
+        // Set once routed or dropped, guarded by the scheduler.
+        boolean done;
+    }
+}
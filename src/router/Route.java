@@ -21,6 +21,8 @@ public class Route {
     private String interfaceType;
     // The mac address given by the ARP table.
     private String macAddress;
+    // The address missing from the ARP table, when the miss is reported later.
+    private String unresolvedAddress;
 
     /**
      * The Route constructor.
@@ -154,7 +156,7 @@ public class Route {
      *
      * @return The MAC address.
      */
-    private String getMacAddress() {
+    String getMacAddress() {
         return macAddress;
     }
 
@@ -167,6 +169,25 @@ public class Route {
         this.macAddress = macAddress;
     }
 
+    /**
+     * Get the address that could not be found in the ARP table, when the
+     * router defers reporting the miss.
+     *
+     * @return The address, or null if there was no deferred miss.
+     */
+    String getUnresolvedAddress() {
+        return unresolvedAddress;
+    }
+
+    /**
+     * Set the address that could not be found in the ARP table.
+     *
+     * @param unresolvedAddress The address.
+     */
+    void setUnresolvedAddress(String unresolvedAddress) {
+        this.unresolvedAddress = unresolvedAddress;
+    }
+
     /**
      * Get the PDU for which this route applies.
      *
@@ -0,0 +1,207 @@
+package src.router;
+
+import java.util.Arrays;
+
+/**
+ * A fixed size cache from destination address to next hop id, in front of the
+ * route lookup engine. When traffic goes to a small set of hot destinations,
+ * most pdus are routed with one hash probe instead of a longest prefix match.
+ * <p>
+ * Entries are kept in fixed arrays indexed by slot, and found through an open
+ * addressed hash index twice the size with linear probing. When the cache is
+ * full, the CLOCK algorithm picks the entry to evict: a hand sweeps the slots,
+ * clearing the referenced bit of each entry that was hit since the last sweep
+ * and evicting the first one that was not.
+ * <p>
+ * The cache does not know when routes change; the router clears it whenever
+ * the route lookup engine's version moves.
+ *
+ * @author silval
+ */
+public class RouteCache {
+    // Returned by get when the destination is not cached.
+    public static final int MISS = Integer.MIN_VALUE;
+    // The largest number of destinations a cache can hold.
+    public static final int MAX_CAPACITY = 1 << 24;
+
+    private final int[] addresses;
+    private final int[] nextHops;
+    private final boolean[] referenced;
+    // Slot plus one of the entry for each hash bucket, 0 if empty.
+    private final int[] index;
+    private int size;
+    private int hand;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Create an empty route cache.
+     *
+     * @param capacity The number of destinations cached, from 1 to MAX_CAPACITY.
+     * @throws IllegalArgumentException If the capacity is out of range.
+     */
+    public RouteCache(int capacity) {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("route cache size out of range: " + capacity);
+        }
+        this.addresses = new int[capacity];
+        this.nextHops = new int[capacity];
+        this.referenced = new boolean[capacity];
+        this.index = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+    }
+
+    /**
+     * Get the cached next hop of a destination.
+     *
+     * @param address The destination address bits.
+     * @return The next hop id, which may be NextHopTable.NO_ROUTE, or MISS if
+     * the destination is not cached.
+     */
+    public int get(int address) {
+        int mask = this.index.length - 1;
+        for (int bucket = hash(address, mask); this.index[bucket] != 0;
+             bucket = (bucket + 1) & mask) {
+            int slot = this.index[bucket] - 1;
+            if (this.addresses[slot] == address) {
+                this.referenced[slot] = true;
+                this.hits++;
+                return this.nextHops[slot];
+            }
+        }
+        this.misses++;
+        return MISS;
+    }
+
+    /**
+     * Cache the next hop of a destination, evicting an entry if the cache is
+     * full and the destination is not cached yet.
+     *
+     * @param address The destination address bits.
+     * @param nextHop The next hop id, or NextHopTable.NO_ROUTE.
+     */
+    public void put(int address, int nextHop) {
+        int mask = this.index.length - 1;
+        int bucket = hash(address, mask);
+        for (; this.index[bucket] != 0; bucket = (bucket + 1) & mask) {
+            int slot = this.index[bucket] - 1;
+            if (this.addresses[slot] == address) {
+                this.nextHops[slot] = nextHop;
+                return;
+            }
+        }
+        int slot;
+        if (this.size < this.addresses.length) {
+            slot = this.size++;
+        } else {
+            // Sweep the clock hand to an entry not referenced since the last sweep.
+            while (this.referenced[this.hand]) {
+                this.referenced[this.hand] = false;
+                this.hand = (this.hand + 1) % this.addresses.length;
+            }
+            slot = this.hand;
+            this.hand = (this.hand + 1) % this.addresses.length;
+            this.remove(slot);
+            this.evictions++;
+            // Removing may have shifted the run the new entry's bucket is in.
+            bucket = hash(address, mask);
+        }
+        this.addresses[slot] = address;
+        this.nextHops[slot] = nextHop;
+        this.referenced[slot] = false;
+        while (this.index[bucket] != 0) {
+            bucket = (bucket + 1) & mask;
+        }
+        this.index[bucket] = slot + 1;
+    }
+
+    /**
+     * Remove the index bucket of an entry, shifting back the entries after it
+     * in its probe run so that none of them becomes unreachable.
+     *
+     * @param slot The slot of the entry.
+     */
+    private void remove(int slot) {
+        int mask = this.index.length - 1;
+        int bucket = hash(this.addresses[slot], mask);
+        while (this.index[bucket] != slot + 1) {
+            bucket = (bucket + 1) & mask;
+        }
+        int next = (bucket + 1) & mask;
+        while (this.index[next] != 0) {
+            int home = hash(this.addresses[this.index[next] - 1], mask);
+            // Move the entry back if its home bucket is not between the hole and it.
+            if (((next - home) & mask) >= ((next - bucket) & mask)) {
+                this.index[bucket] = this.index[next];
+                bucket = next;
+            }
+            next = (next + 1) & mask;
+        }
+        this.index[bucket] = 0;
+    }
+
+    /**
+     * Remove every entry, keeping the counters.
+     */
+    public void clear() {
+        Arrays.fill(this.index, 0);
+        this.size = 0;
+        this.hand = 0;
+    }
+
+    /**
+     * Hash a destination to an index bucket.
+     *
+     * @param address The destination address bits.
+     * @param mask    The index size minus one.
+     * @return The bucket.
+     */
+    private static int hash(int address, int mask) {
+        return (int) ((address * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    /**
+     * Get the number of cached destinations.
+     *
+     * @return The size of the cache.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Get the number of destinations the cache holds when full.
+     *
+     * @return The capacity.
+     */
+    public int getCapacity() {
+        return this.addresses.length;
+    }
+
+    /**
+     * Get the number of lookups answered by the cache.
+     *
+     * @return The hit count.
+     */
+    public long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * Get the number of lookups the cache could not answer.
+     *
+     * @return The miss count.
+     */
+    public long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * Get the number of entries evicted to make room.
+     *
+     * @return The eviction count.
+     */
+    public long getEvictions() {
+        return this.evictions;
+    }
+}
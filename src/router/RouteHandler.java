@@ -0,0 +1,19 @@
+package src.router;
+
+/**
+ * Receives the routes of a burst of pdus as the router generates them, in
+ * the order of the pdus.
+ *
+ * @author silval
+ * @see Router#generateRoutes
+ */
+public interface RouteHandler {
+
+    /**
+     * Handle the route of the next pdu in the burst.
+     *
+     * @param route The route, or null if the pdu has no route.
+     * @return true to go on with the burst, false to stop routing it.
+     */
+    boolean handle(Route route);
+}
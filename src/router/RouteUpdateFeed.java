@@ -0,0 +1,173 @@
+package src.router;
+
+import src.binarysearchtrie.BinarySearchTrie;
+import src.binarysearchtrie.LongestPrefixMatcher;
+import src.tables.RouteUpdate;
+import src.tables.TableReader;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies a feed of timestamped route announcements and withdrawals to a
+ * router's live binary search trie, on its own thread while the router
+ * forwards pdus. Each
+ * update is applied when its time comes, counted from when the feed starts,
+ * and the feed measures:
+ * <ul>
+ * <li>the apply latency, the time the insert or withdraw takes;</li>
+ * <li>the time to FIB, from when the update was due until the new trie is
+ * published to lookups, which includes any time waiting behind the updates
+ * before it;</li>
+ * <li>the number of pdus forwarded while updates were being applied.</li>
+ * </ul>
+ *
+ * @author silval
+ * @see RouteUpdate
+ */
+public class RouteUpdateFeed implements Runnable {
+    private final Router router;
+    private final TableReader reader;
+    // The number of pdus routed so far, counted by the forwarding thread.
+    private final AtomicLong routedCount;
+    private volatile boolean stopped;
+    private long applied;
+    private long rejected;
+    private long totalApplyNanos;
+    private long maxApplyNanos;
+    private long totalLagNanos;
+    private long maxLagNanos;
+    // When the first and last updates were applied, and the pdus routed by then.
+    private long firstAppliedAt;
+    private long lastAppliedAt;
+    private long routedAtFirst;
+    private long routedAtLast;
+
+    /**
+     * Create a feed of the route updates read from a file.
+     *
+     * @param router      The router whose trie the updates are applied to.
+     * @param reader      The reader of the update file.
+     * @param routedCount The number of pdus routed so far, to measure the
+     *                    forwarding throughput during the updates.
+     */
+    public RouteUpdateFeed(Router router, TableReader reader, AtomicLong routedCount) {
+        this.router = router;
+        this.reader = reader;
+        this.routedCount = routedCount;
+    }
+
+    /**
+     * Apply the updates until the feed ends or is stopped.
+     */
+    public void run() {
+        long start = System.nanoTime();
+        while (!this.stopped) {
+            RouteUpdate update;
+            try {
+                update = this.reader.readRouteUpdate();
+            } catch (Exception e) {
+                System.err.println("ERROR: " + e.getMessage());
+                this.rejected++;
+                continue;
+            }
+            if (update == null) {
+                break;
+            }
+            long due = start + update.getTime() * 1000000L;
+            if (!this.sleepUntil(due)) {
+                break;
+            }
+            // Fetched for each update, since a reload may have replaced the trie.
+            LongestPrefixMatcher engine = this.router.getRoutingTrie();
+            if (!(engine instanceof BinarySearchTrie)) {
+                System.err.println("ERROR: route updates need the binary engine");
+                this.rejected++;
+                continue;
+            }
+            BinarySearchTrie trie = (BinarySearchTrie) engine;
+            long before = System.nanoTime();
+            if (update.isAnnouncement()) {
+                trie.insert(update.getDestinationAddress(), update.getEntry());
+            } else if (!trie.withdraw(update.getDestinationAddress())) {
+                System.err.printf("ERROR: %s/%d could not be withdrawn, it has no route. \n",
+                                  update.getDestinationAddress().getAddressString(),
+                                  update.getDestinationAddress().getPrefixLength());
+                this.rejected++;
+                continue;
+            }
+            long after = System.nanoTime();
+            this.record(after - before, after - due, after);
+        }
+    }
+
+    /**
+     * Stop applying updates. The update being applied, if any, still
+     * completes.
+     */
+    public void stop() {
+        this.stopped = true;
+    }
+
+    /**
+     * Sleep until an update is due.
+     *
+     * @param due The time the update is due, in System.nanoTime units.
+     * @return true when the update is due, false if the feed was stopped.
+     */
+    private boolean sleepUntil(long due) {
+        long wait;
+        while (!this.stopped && (wait = due - System.nanoTime()) > 0) {
+            try {
+                Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return !this.stopped;
+    }
+
+    /**
+     * Record the measurements of an applied update.
+     *
+     * @param applyNanos The time taken to apply it.
+     * @param lagNanos   The time from when it was due until it was applied.
+     * @param now        The time it was applied.
+     */
+    private void record(long applyNanos, long lagNanos, long now) {
+        long routed = this.routedCount.get();
+        if (this.applied == 0) {
+            this.firstAppliedAt = now;
+            this.routedAtFirst = routed;
+        }
+        this.lastAppliedAt = now;
+        this.routedAtLast = routed;
+        this.applied++;
+        this.totalApplyNanos += applyNanos;
+        this.maxApplyNanos = Math.max(this.maxApplyNanos, applyNanos);
+        this.totalLagNanos += lagNanos;
+        this.maxLagNanos = Math.max(this.maxLagNanos, lagNanos);
+    }
+
+    /**
+     * Print the measurements to System.err. Call once the feed's thread has
+     * ended.
+     */
+    public void printStatistics() {
+        System.err.printf("route updates: %d applied, %d rejected\n", this.applied,
+                          this.rejected);
+        if (this.applied == 0) {
+            return;
+        }
+        System.err.printf("apply latency: mean %.1f us, max %.1f us\n",
+                          this.totalApplyNanos / 1000.0 / this.applied,
+                          this.maxApplyNanos / 1000.0);
+        System.err.printf("time to FIB: mean %.1f us, max %.1f us\n",
+                          this.totalLagNanos / 1000.0 / this.applied, this.maxLagNanos / 1000.0);
+        long churnNanos = this.lastAppliedAt - this.firstAppliedAt;
+        if (churnNanos > 0) {
+            long routed = this.routedAtLast - this.routedAtFirst;
+            System.err.printf("forwarding during updates: %d PDUs in %.1f ms, %.0f PDUs/s\n",
+                              routed, churnNanos / 1e6, routed * 1e9 / churnNanos);
+        }
+    }
+}
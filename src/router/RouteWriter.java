@@ -0,0 +1,356 @@
+package src.router;
+
+import src.address.IPv4Address;
+import src.pdu.IPv4PDU;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Writes routes to an output stream, formatting them straight into a reused
+ * byte buffer that is written out when full, or when flushed.
+ * <p>
+ * As text, each route is written byte for byte as Route.print prints it,
+ * preceded by the ARP table's error line if its MAC address lookup missed,
+ * so the output is the same as routing one pdu at a time. The routers
+ * should defer their ARP misses, so they are not printed while routing.
+ * <p>
+ * As binary, each route is a record of RECORD_LENGTH bytes, numbers in
+ * network byte order:
+ * <pre>
+ *  0  source address          4 bytes
+ *  4  destination address     4 bytes
+ *  8  gateway address         4 bytes, 0 if directly connected
+ * 12  source port             2 bytes
+ * 14  destination port        2 bytes
+ * 16  MAC address             6 bytes, 0 if none or point to point
+ * 22  TTL                     1 byte, 0 if expired
+ * 23  decision                1 byte: 0 via a gateway, 1 directly connected,
+ *                             2 point to point, 3 TTL expired, plus 0x80
+ *                             if the MAC address lookup missed
+ * 24  egress interface        8 bytes of ASCII, padded with 0
+ * </pre>
+ * Like a PrintStream, a writer does not throw on an output error, but
+ * remembers it for checkError. A writer is not thread safe.
+ *
+ * @author silval
+ * @see Route#print()
+ */
+public class RouteWriter {
+    // The length of a binary record.
+    public static final int RECORD_LENGTH = 32;
+    private static final int BUFFER_SIZE = 1 << 16;
+    // Room for a route, but for the table strings: the interface, MAC and unresolved address.
+    private static final int MAX_ROUTE_LENGTH = 1024;
+    private static final int VIA_GATEWAY = 0;
+    private static final int DIRECTLY_CONNECTED = 1;
+    private static final int POINT_TO_POINT = 2;
+    private static final int TTL_EXPIRED = 3;
+    private static final int ARP_MISS = 0x80;
+
+    private final OutputStream out;
+    private final boolean binary;
+    private final boolean autoFlush;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int length;
+    private boolean error;
+
+    /**
+     * Create a writer.
+     *
+     * @param out       The stream to write the routes to.
+     * @param binary    true to write binary records, false to write text.
+     * @param autoFlush true to flush after every route, such as when the
+     *                  routes are read by a person as they are typed in.
+     */
+    public RouteWriter(OutputStream out, boolean binary, boolean autoFlush) {
+        this.out = out;
+        this.binary = binary;
+        this.autoFlush = autoFlush;
+    }
+
+    /**
+     * Write a route.
+     *
+     * @param route The route.
+     * @throws NullPointerException If the route is missing an address, as
+     *                              Route.print does.
+     */
+    public void write(Route route) {
+        if (this.length + MAX_ROUTE_LENGTH > this.buffer.length) {
+            this.drain();
+        }
+        if (this.binary) {
+            this.writeRecord(route);
+        } else {
+            this.writeText(route);
+        }
+        if (this.autoFlush) {
+            this.flush();
+        }
+    }
+
+    /**
+     * Write out the routes buffered so far.
+     */
+    public void flush() {
+        this.drain();
+        try {
+            this.out.flush();
+        } catch (IOException e) {
+            this.error = true;
+        }
+    }
+
+    /**
+     * Flush the writer and determine if writing has failed.
+     *
+     * @return true if an output error has occurred, false otherwise.
+     */
+    public boolean checkError() {
+        this.flush();
+        return this.error;
+    }
+
+    /**
+     * Format a route as text, as Route.print does.
+     *
+     * @param route The route.
+     */
+    private void writeText(Route route) {
+        IPv4PDU pdu = route.getPDU();
+        if (route.getUnresolvedAddress() != null) {
+            this.append("ERROR: ").append(route.getUnresolvedAddress())
+                .append(" could not be found in ARP table. \n");
+        }
+        // Like Route.print, write nothing of a route missing an address.
+        int start = this.length;
+        try {
+            this.writeLine(route, pdu);
+        } catch (RuntimeException e) {
+            this.length = start;
+            throw e;
+        }
+    }
+
+    /**
+     * Format the line of a route.
+     *
+     * @param route The route.
+     * @param pdu   The pdu routed.
+     */
+    private void writeLine(Route route, IPv4PDU pdu) {
+        this.appendAddress(pdu.getSourceAddress()).append(':')
+            .appendNumber(pdu.getSourcePortNumber()).append("->")
+            .appendAddress(pdu.getDestinationAddress()).append(':')
+            .appendNumber(pdu.getDestinationPortNumber());
+        if (pdu.getTimeToLive() <= 0) {
+            this.append(" discarded (TTL expired) \n");
+            return;
+        }
+        if (route.isPointToPoint()) {
+            this.append(" via ").appendAddress(route.getGatewayAddress()).append("(ppp0)");
+        } else if (route.isDirectlyConnected()) {
+            this.append(" directly connected (").append(route.getInterfaceType()).append('-')
+                .append(route.getMacAddress()).append(')');
+        } else {
+            this.append(" via ").appendAddress(route.getGatewayAddress()).append('(')
+                .append(route.getInterfaceType()).append('-').append(route.getMacAddress())
+                .append(')');
+        }
+        this.append(" ttl ").appendNumber(pdu.getTimeToLive()).append(" \n");
+    }
+
+    /**
+     * Format a route as a binary record.
+     *
+     * @param route The route.
+     */
+    private void writeRecord(Route route) {
+        IPv4PDU pdu = route.getPDU();
+        int decision;
+        if (pdu.getTimeToLive() <= 0) {
+            decision = TTL_EXPIRED;
+        } else if (route.isPointToPoint()) {
+            decision = POINT_TO_POINT;
+        } else if (route.isDirectlyConnected()) {
+            decision = DIRECTLY_CONNECTED;
+        } else {
+            decision = VIA_GATEWAY;
+        }
+        boolean hasMac = decision == VIA_GATEWAY || decision == DIRECTLY_CONNECTED;
+        if (hasMac && route.getMacAddress() == null) {
+            decision |= ARP_MISS;
+        }
+        // Get the addresses first, so a route missing one writes nothing.
+        int source = pdu.getSourceAddress().getBits();
+        int destination = pdu.getDestinationAddress().getBits();
+        int gateway = route.getGatewayAddress() == null || route.isDirectlyConnected() ? 0
+                              : route.getGatewayAddress().getBits();
+        int start = this.length;
+        this.putInt(source);
+        this.putInt(destination);
+        this.putInt(gateway);
+        this.putShort(pdu.getSourcePortNumber());
+        this.putShort(pdu.getDestinationPortNumber());
+        this.putMacAddress(hasMac ? route.getMacAddress() : null);
+        this.buffer[this.length++] = (byte) Math.max(0, Math.min(pdu.getTimeToLive(), 255));
+        this.buffer[this.length++] = (byte) decision;
+        String name = route.getInterfaceType();
+        for (int i = 0; i < 8; ++i) {
+            char c = name != null && i < name.length() ? name.charAt(i) : 0;
+            this.buffer[this.length++] = (byte) (c < 0x80 ? c : '?');
+        }
+        assert this.length - start == RECORD_LENGTH;
+    }
+
+    /**
+     * Write a MAC address given as hex pairs separated by ':' or '-' as six
+     * bytes, which are all 0 if there is none or it is not in that form.
+     *
+     * @param macAddress The MAC address.
+     */
+    private void putMacAddress(String macAddress) {
+        int start = this.length;
+        boolean valid = macAddress != null && macAddress.length() == 17;
+        for (int i = 0; i < 6; ++i) {
+            int high = valid ? Character.digit(macAddress.charAt(i * 3), 16) : -1;
+            int low = valid ? Character.digit(macAddress.charAt(i * 3 + 1), 16) : -1;
+            valid = high >= 0 && low >= 0;
+            this.buffer[this.length++] = (byte) (high << 4 | low);
+        }
+        if (!valid) {
+            for (int i = start; i < this.length; ++i) {
+                this.buffer[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Append an address in a.b.c.d notation.
+     *
+     * @param address The address.
+     * @return This writer.
+     */
+    private RouteWriter appendAddress(IPv4Address address) {
+        int bits = address.getBits();
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            this.appendNumber(bits >>> shift & 0xff);
+            if (shift > 0) {
+                this.buffer[this.length++] = '.';
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Append a number in decimal.
+     *
+     * @param value The number.
+     * @return This writer.
+     */
+    private RouteWriter appendNumber(int value) {
+        long number = value;
+        if (number < 0) {
+            this.buffer[this.length++] = '-';
+            number = -number;
+        }
+        int digits = 1;
+        for (long power = 10; power <= number; power *= 10) {
+            digits++;
+        }
+        for (int i = this.length + digits - 1; i >= this.length; --i) {
+            this.buffer[i] = (byte) ('0' + number % 10);
+            number /= 10;
+        }
+        this.length += digits;
+        return this;
+    }
+
+    /**
+     * Append a string, encoded as System.out would encode it.
+     *
+     * @param text The string, or null to append null, as printf does.
+     * @return This writer.
+     */
+    private RouteWriter append(String text) {
+        if (text == null) {
+            text = "null";
+        }
+        this.ensureCapacity(text.length());
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                byte[] bytes = text.substring(i).getBytes(Charset.defaultCharset());
+                this.ensureCapacity(bytes.length);
+                System.arraycopy(bytes, 0, this.buffer, this.length, bytes.length);
+                this.length += bytes.length;
+                return this;
+            }
+            this.buffer[this.length++] = (byte) c;
+        }
+        return this;
+    }
+
+    /**
+     * Make room for a string and the rest of a route. The buffer is drained
+     * only between routes, so it only grows for a table holding a very long
+     * name.
+     *
+     * @param length The length of the string.
+     */
+    private void ensureCapacity(int length) {
+        if (this.length + length + MAX_ROUTE_LENGTH > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2,
+                                                              this.length + length +
+                                                                      MAX_ROUTE_LENGTH));
+        }
+    }
+
+    /**
+     * Append a character.
+     *
+     * @param c The ASCII character.
+     * @return This writer.
+     */
+    private RouteWriter append(char c) {
+        this.buffer[this.length++] = (byte) c;
+        return this;
+    }
+
+    /**
+     * Put a 32 bit number in network byte order.
+     *
+     * @param value The number.
+     */
+    private void putInt(int value) {
+        this.putShort(value >>> 16);
+        this.putShort(value);
+    }
+
+    /**
+     * Put the low 16 bits of a number in network byte order.
+     *
+     * @param value The number.
+     */
+    private void putShort(int value) {
+        this.buffer[this.length++] = (byte) (value >>> 8);
+        this.buffer[this.length++] = (byte) value;
+    }
+
+    /**
+     * Write out the buffer and empty it, remembering a failure.
+     */
+    private void drain() {
+        if (this.length > 0 && !this.error) {
+            try {
+                this.out.write(this.buffer, 0, this.length);
+            } catch (IOException e) {
+                this.error = true;
+            }
+        }
+        this.length = 0;
+    }
+}
@@ -1,86 +1,280 @@
 package src.router;
 
 import src.address.GatewayAddress;
-import src.binarysearchtrie.BinarySearchTrie;
+import src.address.IPv4Address;
+import src.binarysearchtrie.LongestPrefixMatcher;
+import src.binarysearchtrie.NextHopTable;
 import src.pdu.IPv4PDU;
 import src.tables.ARPTable;
 import src.tables.NATTable;
 import src.tables.TranslationTableEntry;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
- * The router class that actually does the work of router PDUs using the binary
- * search trie and arp table.
+ * The router class that actually does the work of router PDUs using a route
+ * lookup engine and arp table.
  *
  * @author silval
  */
 public class Router {
-    private final ARPTable arpTable;
-    private final BinarySearchTrie routingTrie;
+    private ARPTable arpTable;
+    // Read by route update feeds on other threads.
+    private volatile LongestPrefixMatcher routingTrie;
+    private AdjacencyTable adjacencyTable;
     private NATTable natTable;
+    // Tables rebuilt in the background, swapped in before the next pdu is routed.
+    private final AtomicReference<ForwardingTables> pendingTables =
+            new AtomicReference<ForwardingTables>();
+    // The number of table swaps, and how long routing paused for the last one.
+    private volatile long swapCount;
+    private volatile long lastSwapNanos;
+    // Whether ARP misses are left on the route for whoever prints it to report.
+    private boolean deferArpMisses;
+    // Optional cache of next hops by destination, null if disabled.
+    private RouteCache routeCache;
+    // The route lookup engine version the cached next hops were found in.
+    private long routeCacheVersion;
+    // Optional table of flow decisions, null if disabled.
+    private FlowTable flowTable;
+    // The route lookup engine and ARP table versions the flow decisions were made with.
+    private long flowRouteVersion;
+    private int flowArpVersion;
 
     /**
-     * Create a router with the given router binary search trie and the
-     * arpTable.
+     * Create a router with the given route lookup engine and the arpTable.
      *
-     * @param routingTrie The binary search router trie.
+     * @param routingTrie The route lookup engine, such as a binary search trie.
      * @param arpTable    The ARP table.
      */
-    public Router(BinarySearchTrie routingTrie, ARPTable arpTable) {
+    public Router(LongestPrefixMatcher routingTrie, ARPTable arpTable) {
         this.routingTrie = routingTrie;
         this.arpTable = arpTable;
+        this.adjacencyTable = new AdjacencyTable(routingTrie.getNextHops(), arpTable);
         this.setNatTable(null);
     }
 
     /**
      * Create a router with a natTable for part 2.
      *
-     * @param routingTrie The binary search router trie.
+     * @param routingTrie The route lookup engine, such as a binary search trie.
      * @param arpTable    The ARP table.
      * @param natTable    The NAT table.
      */
-    public Router(BinarySearchTrie routingTrie, ARPTable arpTable, NATTable natTable) {
+    public Router(LongestPrefixMatcher routingTrie, ARPTable arpTable, NATTable natTable) {
         this(routingTrie, arpTable);
         this.setNatTable(natTable);
     }
 
     /**
-     * Generate the route for a given pdu using the binary search trie and arp
+     * Generate the route for a given pdu using the route lookup engine and arp
      * table.
      *
      * @param pdu The pdu to get the route for.
      * @return The route
      */
     public Route generateRoute(IPv4PDU pdu) {
+        swapPendingTables();
+        FlowTable flows = getFlowTable();
+        if (flows != null) {
+            return generateFlowRoute(pdu, flows);
+        }
         Route route = new Route(pdu);
         // When receiving a pdu, check it against the translation table and reverse the translation
         // if one was applied. (for part 2)
         if (this.hasNAT() && getNatTable().hasBeenTranslated(pdu)) {
             handleReceiveWithNAT(route);
         }
-        // Lookup the correct gateway for this pdu using the routing binary search trie.
-        GatewayAddress gateway = doRoutingTrieLookup(pdu);
-        if (gateway == null) return null;
+        // Lookup the next hop for this pdu using the route cache or lookup engine.
+        int nextHop = lookupNextHop(pdu.getDestinationAddress().getBits());
+        return completeRoute(route, nextHop);
+    }
+
+    /**
+     * Generate the routes for a burst of pdus. The destinations are looked up
+     * together, so the route lookup engine can overlap their memory accesses.
+     * Each route is then completed and passed to the handler in order, so
+     * anything reported while completing it, such as an ARP table miss, comes
+     * after the routes of the pdus before it. With a NAT table the pdus are
+     * routed one by one, since a translation made sending one pdu can change
+     * how a later pdu is received, and with a flow table they are routed one
+     * by one through it.
+     *
+     * @param pdus    The pdus to get the routes for.
+     * @param count   The number of pdus.
+     * @param handler Receives each route, or null where there is no route.
+     * @return The number of routes handled before the handler stopped the
+     * burst.
+     */
+    public int generateRoutes(IPv4PDU[] pdus, int count, RouteHandler handler) {
+        swapPendingTables();
+        if (this.hasNAT() || getFlowTable() != null) {
+            for (int i = 0; i < count; ++i) {
+                if (!handler.handle(generateRoute(pdus[i]))) {
+                    return i;
+                }
+            }
+            return count;
+        }
+        int[] addresses = new int[count];
+        int[] nextHops = new int[count];
+        RouteCache cache = getRouteCache();
+        if (cache == null) {
+            for (int i = 0; i < count; ++i) {
+                addresses[i] = pdus[i].getDestinationAddress().getBits();
+            }
+            getRoutingTrie().lookupNextHops(addresses, nextHops, count);
+        } else {
+            // Only the destinations missing from the cache go to the route lookup engine.
+            int[] missing = new int[count];
+            int misses = 0;
+            for (int i = 0; i < count; ++i) {
+                int address = pdus[i].getDestinationAddress().getBits();
+                nextHops[i] = cache.get(address);
+                if (nextHops[i] == RouteCache.MISS) {
+                    addresses[misses] = address;
+                    missing[misses++] = i;
+                }
+            }
+            int[] found = new int[misses];
+            getRoutingTrie().lookupNextHops(addresses, found, misses);
+            for (int i = 0; i < misses; ++i) {
+                nextHops[missing[i]] = found[i];
+                cache.put(addresses[i], found[i]);
+            }
+        }
+        for (int i = 0; i < count; ++i) {
+            if (!handler.handle(completeRoute(new Route(pdus[i]), nextHops[i]))) {
+                return i;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Generate the route for a pdu from its flow's decision, or make the
+     * decision and remember it if the flow is new. The decision is only kept
+     * once the pdu was routed and its MAC address resolved, so errors are
+     * still reported for every pdu of a flow that hits them.
+     * <p>
+     * A flow keeps the NAT translation made for its first pdu, as a NAT device
+     * does, where without the flow table each pdu sent takes a new
+     * translation and source port.
+     *
+     * @param pdu   The pdu to get the route for.
+     * @param flows The flow table.
+     * @return The route, or null if there is no route.
+     */
+    private Route generateFlowRoute(IPv4PDU pdu, FlowTable flows) {
+        // The key is taken before routing rewrites the pdu.
+        int source = pdu.getSourceAddress().getBits();
+        int destination = pdu.getDestinationAddress().getBits();
+        int protocol = pdu.getProtocolNumber();
+        int sourcePort = pdu.getSourcePortNumber();
+        int destinationPort = pdu.getDestinationPortNumber();
+        long now = System.nanoTime();
+        FlowEntry flow = flows.get(source, destination, protocol, sourcePort, destinationPort,
+                                   now);
+        Route route = new Route(pdu);
+        if (flow != null) {
+            if (flow.getOriginalDestination() != null) {
+                pdu.setDestinationAddress(flow.getOriginalDestination());
+                pdu.setDestinationPortNumber(flow.getOriginalDestinationPort());
+            }
+            pdu.decrementTTL();
+            AdjacencyTable adjacency = getAdjacencyTable();
+            int nextHop = flow.getNextHop();
+            route.setGatewayAddress(adjacency.getGateway(nextHop));
+            if (adjacency.isPointToPoint(nextHop)) {
+                route.setPointToPoint(true);
+            } else {
+                route.setDirectlyConnected(adjacency.isDirectlyConnected(nextHop));
+                route.setMacAddress(flow.getMacAddress());
+            }
+            route.setInterfaceType(adjacency.getInterfaceType(nextHop));
+            if (flow.getTranslatedSource() != null) {
+                pdu.setSourceAddress(flow.getTranslatedSource());
+                pdu.setSourcePortNumber(flow.getTranslatedSourcePort());
+            }
+            return route;
+        }
+
+        boolean received = this.hasNAT() && getNatTable().hasBeenTranslated(pdu);
+        if (received) {
+            handleReceiveWithNAT(route);
+        }
+        int nextHop = lookupNextHop(pdu.getDestinationAddress().getBits());
+        if (completeRoute(route, nextHop) == null) {
+            return null;
+        }
+        if (route.getMacAddress() == null && !getAdjacencyTable().isPointToPoint(nextHop)) {
+            return route;
+        }
+        boolean translated = this.hasNAT() && getNatTable().contains(route.getInterfaceType());
+        flows.put(source, destination, protocol, sourcePort, destinationPort, now)
+             .setDecision(nextHop, route.getMacAddress(),
+                          received ? pdu.getDestinationAddress() : null,
+                          pdu.getDestinationPortNumber(),
+                          translated ? pdu.getSourceAddress() : null, pdu.getSourcePortNumber());
+        return route;
+    }
+
+    /**
+     * Lookup the next hop of a destination, in the route cache if it is
+     * enabled and else with the route lookup engine.
+     *
+     * @param address The destination address bits.
+     * @return The adjacency table index, or NextHopTable.NO_ROUTE.
+     */
+    private int lookupNextHop(int address) {
+        RouteCache cache = getRouteCache();
+        if (cache == null) {
+            return getRoutingTrie().lookupNextHop(address);
+        }
+        int nextHop = cache.get(address);
+        if (nextHop == RouteCache.MISS) {
+            nextHop = getRoutingTrie().lookupNextHop(address);
+            cache.put(address, nextHop);
+        }
+        return nextHop;
+    }
+
+    /**
+     * Fill in a route from the next hop found for its pdu.
+     *
+     * @param route   The route, holding the pdu.
+     * @param nextHop The adjacency table index, or NextHopTable.NO_ROUTE.
+     * @return The route, or null if there is no route.
+     */
+    private Route completeRoute(Route route, int nextHop) {
+        IPv4PDU pdu = route.getPDU();
+        if (nextHop == NextHopTable.NO_ROUTE) {
+            System.err.println("ERROR: Could not get gateway address");
+            return null;
+        }
+        AdjacencyTable adjacency = getAdjacencyTable();
+        GatewayAddress gateway = adjacency.getGateway(nextHop);
 
         // Decrement the TTL for this pdu.
         pdu.decrementTTL();
 
         route.setGatewayAddress(gateway);
-        // Do another router table lookup to determine if route is point to point.
-        if (getRoutingTrie().getRoutingTable().getEntry(gateway).isPointToPoint()) {
+        if (adjacency.isPointToPoint(nextHop)) {
             route.setPointToPoint(true);
             // If the gateway address is zero, then it is directly connected.
-        } else if (route.getGatewayAddress().getAddress() == 0) {
+        } else if (adjacency.isDirectlyConnected(nextHop)) {
             route.setDirectlyConnected(true);
-            String macAddress = this.getArpTable().getARPEntry(pdu.getDestinationAddress()
-                                                                       .getAddressString());
-            route.setMacAddress(macAddress);
+            route.setMacAddress(lookupMacAddress(route, pdu.getDestinationAddress()));
         } else {
-            // Else, just do an ARP table lookup.
-            String macAddress = getArpTable().getARPEntry(gateway.getAddressString());
+            // Else, use the gateway MAC address resolved when the table was built.
+            String macAddress = adjacency.getMacAddress(nextHop);
+            if (macAddress == null) {
+                // Not in the ARP table, let the ARP table report the miss.
+                macAddress = lookupMacAddress(route, gateway);
+            }
             route.setMacAddress(macAddress);
         }
-        route.setInterfaceType(getRoutingTrie().getRoutingTable().getEntry(gateway)
-                                       .getInterfaceType());
+        route.setInterfaceType(adjacency.getInterfaceType(nextHop));
         // Before sending a PDU, modify it's source if NAT is present at that interface.
         // (for part 2)
         if (this.hasNAT() && getNatTable().contains(route.getInterfaceType())) {
@@ -90,19 +284,52 @@ public class Router {
     }
 
     /**
-     * Lookup the gateway address using the binary search trie.
+     * Lookup a MAC address in the ARP table, reporting a miss now or, if
+     * misses are deferred, leaving it on the route.
      *
-     * @param pdu The pdu to be routed.
-     * @return The gateway address for this pdu.
+     * @param route     The route being completed.
+     * @param ipAddress The IP address.
+     * @return The MAC address, or null if it is not in the ARP table.
      */
-    private GatewayAddress doRoutingTrieLookup(IPv4PDU pdu) {
-        // Get the gateway address from the binary search trie.
-        GatewayAddress gateway = getRoutingTrie().lookupGateway(pdu.getDestinationAddress());
-        if (gateway == null) {
-            System.err.println("ERROR: Could not get gateway address");
+    private String lookupMacAddress(Route route, IPv4Address ipAddress) {
+        if (this.deferArpMisses && !getArpTable().hasARPEntry(ipAddress)) {
+            route.setUnresolvedAddress(ipAddress.getAddressString());
             return null;
         }
-        return gateway;
+        return getArpTable().getARPEntry(ipAddress);
+    }
+
+    /**
+     * Leave ARP misses on the routes instead of reporting them while routing,
+     * for when routes are generated on other threads and the misses must be
+     * reported in order with the routes printed.
+     *
+     * @param deferArpMisses true to defer ARP misses, false to report them.
+     */
+    public void setDeferArpMisses(boolean deferArpMisses) {
+        this.deferArpMisses = deferArpMisses;
+    }
+
+    /**
+     * Hash the remote end of a pdu's connection: its destination address and
+     * port, or its source address and port when it is received through NAT.
+     * Both directions of a NAT session hash the same, so pdus sharded by it
+     * over several routers keep each session's translations on one router.
+     *
+     * @param pdu The pdu.
+     * @return The hash.
+     */
+    public int hashRemoteEndpoint(IPv4PDU pdu) {
+        long address;
+        int port;
+        if (this.hasNAT() && getNatTable().hasBeenTranslated(pdu)) {
+            address = pdu.getSourceAddress().getAddress();
+            port = pdu.getSourcePortNumber();
+        } else {
+            address = pdu.getDestinationAddress().getAddress();
+            port = pdu.getDestinationPortNumber();
+        }
+        return (int) (((address * 0x9E3779B97F4A7C15L + port) * 0x9E3779B97F4A7C15L) >>> 32);
     }
 
     /**
@@ -144,15 +371,151 @@ public class Router {
         pdu.setDestinationPortNumber(entry.getOriginalSourcePort());
     }
 
+    /**
+     * Replace the routes, ARP entries and NAT addresses this router forwards
+     * with. The adjacency table of the new next hops is built on the calling
+     * thread, and the tables are swapped in together before the next pdu is
+     * routed, so forwarding does not wait for the rebuild and no pdu is routed
+     * with a mix of old and new tables. The NAT translations made so far are
+     * kept, and the route cache and flow table are cleared.
+     *
+     * @param routingTrie The new route lookup engine.
+     * @param arpTable    The new ARP table.
+     * @param natTable    The new NAT table, or null to keep the current one.
+     */
+    public void replaceTables(LongestPrefixMatcher routingTrie, ARPTable arpTable,
+                              NATTable natTable) {
+        this.pendingTables.set(new ForwardingTables(routingTrie, arpTable, natTable));
+    }
+
+    /**
+     * Swap in the tables given to replaceTables, if there are any. Only the
+     * routing thread calls this, so the tables it reads never change while a
+     * pdu is being routed.
+     */
+    private void swapPendingTables() {
+        if (this.pendingTables.get() == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        ForwardingTables tables = this.pendingTables.getAndSet(null);
+        if (tables.natTable != null && this.hasNAT()) {
+            tables.natTable.keepTranslations(getNatTable());
+            this.setNatTable(tables.natTable);
+        }
+        this.routingTrie = tables.routingTrie;
+        this.arpTable = tables.arpTable;
+        this.adjacencyTable = tables.adjacencyTable;
+        if (this.routeCache != null) {
+            this.routeCache.clear();
+            this.routeCacheVersion = tables.routingTrie.getVersion();
+        }
+        if (this.flowTable != null) {
+            this.flowTable.clear();
+            this.flowRouteVersion = tables.routingTrie.getVersion();
+            this.flowArpVersion = tables.arpTable.getVersion();
+        }
+        this.lastSwapNanos = System.nanoTime() - start;
+        this.swapCount++;
+    }
+
+    /**
+     * Get the number of times replaced tables were swapped in.
+     *
+     * @return The swap count.
+     */
+    public long getSwapCount() {
+        return swapCount;
+    }
+
+    /**
+     * Get how long routing paused to swap in the last replaced tables.
+     *
+     * @return The pause in nanoseconds.
+     */
+    public long getLastSwapNanos() {
+        return lastSwapNanos;
+    }
+
     /**
      * Get the router trie for this router.
      *
-     * @return The binary search trie.
+     * @return The route lookup engine.
      */
-    private BinarySearchTrie getRoutingTrie() {
+    public LongestPrefixMatcher getRoutingTrie() {
         return routingTrie;
     }
 
+    /**
+     * Enable a route cache in front of the route lookup engine, replacing any
+     * existing one.
+     *
+     * @param size The number of destinations cached.
+     * @throws IllegalArgumentException If the size is out of range.
+     */
+    public void enableRouteCache(int size) {
+        this.routeCache = new RouteCache(size);
+        this.routeCacheVersion = getRoutingTrie().getVersion();
+    }
+
+    /**
+     * Get the route cache for this router, clearing it first if routes changed
+     * since its next hops were cached.
+     *
+     * @return The route cache, or null if it is not enabled.
+     */
+    public RouteCache getRouteCache() {
+        if (routeCache != null && routeCacheVersion != getRoutingTrie().getVersion()) {
+            routeCache.clear();
+            routeCacheVersion = getRoutingTrie().getVersion();
+        }
+        return routeCache;
+    }
+
+    /**
+     * Enable a flow table in front of the route lookup, replacing any
+     * existing one.
+     *
+     * @param size        The number of flows kept.
+     * @param idleTimeout The time in milliseconds after which an idle flow is
+     *                    expired.
+     * @throws IllegalArgumentException If the size is out of range.
+     */
+    public void enableFlowTable(int size, long idleTimeout) {
+        this.flowTable = new FlowTable(size, idleTimeout * 1000000L);
+        this.flowRouteVersion = getRoutingTrie().getVersion();
+        this.flowArpVersion = getArpTable().getVersion();
+    }
+
+    /**
+     * Get the flow table for this router, clearing it first if routes or ARP
+     * entries changed since its decisions were made.
+     *
+     * @return The flow table, or null if it is not enabled.
+     */
+    public FlowTable getFlowTable() {
+        if (flowTable != null && (flowRouteVersion != getRoutingTrie().getVersion()
+                                          || flowArpVersion != getArpTable().getVersion())) {
+            flowTable.clear();
+            flowRouteVersion = getRoutingTrie().getVersion();
+            flowArpVersion = getArpTable().getVersion();
+        }
+        return flowTable;
+    }
+
+    /**
+     * Get the adjacency table for this router, rebuilding it first if the ARP
+     * table or the next hops changed since it was built.
+     *
+     * @return The adjacency table.
+     */
+    private AdjacencyTable getAdjacencyTable() {
+        if (!adjacencyTable.isCurrent()) {
+            adjacencyTable.rebuild();
+        }
+        return adjacencyTable;
+    }
+
     /**
      * Get the ARP table for this router.
      *
@@ -185,7 +548,7 @@ public class Router {
      *
      * @return true if NAT table present, false otherwise.
      */
-    private boolean hasNAT() {
+    public boolean hasNAT() {
         return getNatTable() != null;
     }
 }
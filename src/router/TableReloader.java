@@ -0,0 +1,146 @@
+package src.router;
+
+import src.binarysearchtrie.LongestPrefixMatcher;
+import src.binarysearchtrie.LookupEngine;
+import src.tables.ARPTable;
+import src.tables.NATTable;
+import src.tables.RoutingTable;
+import src.tables.TableReader;
+
+import java.io.File;
+
+/**
+ * Watches the route, ARP and NAT files of a running router and, when any of
+ * them changes, rebuilds the tables from them on its own thread and hands them
+ * to the router to swap in. The router keeps forwarding with the old tables
+ * while the new ones are built, and keeps its NAT translations.
+ * <p>
+ * The files are polled for a new modification time or size. If the new files
+ * cannot be read, the error is logged and the router keeps its tables. The
+ * reload time and the pause routing took to swap the tables are logged to
+ * System.err.
+ *
+ * @author silval
+ * @see Router#replaceTables(LongestPrefixMatcher, ARPTable, NATTable)
+ */
+public class TableReloader implements Runnable {
+    private final Router router;
+    private final LookupEngine engine;
+    private final File[] files;
+    private final long interval;
+    // The modification time and size of each file when it was last read.
+    private final long[] modified;
+    private final long[] lengths;
+    private volatile boolean stopped;
+
+    /**
+     * Create a reloader for the files a router's tables were read from.
+     *
+     * @param router    The router.
+     * @param engine    The route lookup engine to build from the routes.
+     * @param routeFile The route file.
+     * @param arpFile   The ARP file.
+     * @param natFile   The NAT file, or null if the router has no NAT table.
+     * @param interval  The time in milliseconds between checks of the files.
+     */
+    public TableReloader(Router router, LookupEngine engine, String routeFile, String arpFile,
+                         String natFile, long interval) {
+        this.router = router;
+        this.engine = engine;
+        this.files = natFile == null
+                             ? new File[]{new File(routeFile), new File(arpFile)}
+                             : new File[]{new File(routeFile), new File(arpFile),
+                                          new File(natFile)};
+        this.interval = interval;
+        this.modified = new long[this.files.length];
+        this.lengths = new long[this.files.length];
+        this.hasChanged();
+    }
+
+    /**
+     * Check the files until stopped, reloading the tables whenever one
+     * changes.
+     */
+    public void run() {
+        long swapsLogged = this.router.getSwapCount();
+        while (!this.stopped) {
+            try {
+                Thread.sleep(this.interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            // Log the pause of a swap once routing has made it.
+            long swaps = this.router.getSwapCount();
+            if (swaps != swapsLogged) {
+                System.err.printf("tables swapped in, routing paused %.1f us\n",
+                                  this.router.getLastSwapNanos() / 1000.0);
+                swapsLogged = swaps;
+            }
+            if (this.hasChanged()) {
+                this.reload();
+            }
+        }
+    }
+
+    /**
+     * Stop checking the files.
+     */
+    public void stop() {
+        this.stopped = true;
+    }
+
+    /**
+     * Determine if any file changed since the last check, and remember its
+     * modification time and size.
+     *
+     * @return true if a file changed, false otherwise.
+     */
+    private boolean hasChanged() {
+        boolean changed = false;
+        for (int i = 0; i < this.files.length; ++i) {
+            long modified = this.files[i].lastModified();
+            long length = this.files[i].length();
+            if (modified != this.modified[i] || length != this.lengths[i]) {
+                this.modified[i] = modified;
+                this.lengths[i] = length;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Rebuild the tables from the files and hand them to the router.
+     */
+    private void reload() {
+        long start = System.nanoTime();
+        LongestPrefixMatcher routingTrie;
+        ARPTable arpTable;
+        NATTable natTable = null;
+        try {
+            TableReader reader = new TableReader(this.files[0].getPath());
+            RoutingTable routingTable = reader.constructRoutingTable();
+            reader.close();
+            routingTrie = this.engine.create(routingTable);
+            reader = new TableReader(this.files[1].getPath());
+            arpTable = reader.constructARPTable();
+            reader.close();
+            if (this.files.length > 2) {
+                reader = new TableReader(this.files[2].getPath());
+                natTable = reader.constructNATTable();
+                reader.close();
+            }
+            if (arpTable == null || (this.files.length > 2 && natTable == null)) {
+                throw new Exception("the ARP or NAT file is malformed");
+            }
+            this.router.replaceTables(routingTrie, arpTable, natTable);
+        } catch (Exception e) {
+            System.err.println("ERROR: Could not reload tables, keeping the current ones: "
+                                       + e.getMessage());
+            return;
+        }
+        System.err.printf("tables reloaded in %.1f ms, %d routes\n",
+                          (System.nanoTime() - start) / 1e6,
+                          routingTrie.getRoutingTable().size());
+    }
+}
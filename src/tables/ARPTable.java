@@ -1,20 +1,29 @@
 package src.tables;
 
-import java.util.HashMap;
+import src.address.IPv4Address;
+
+import java.net.UnknownHostException;
 
 /**
- * Stores the ARP table using an underlying HashMap.
+ * Stores the ARP table, keyed on the address bits of each IP address in an
+ * open addressed table, so lookups neither format nor hash address strings.
  *
  * @author silval
  */
 public class ARPTable {
-    private HashMap<String, String> table;
+    // The address bits of each entry, and its MAC address, null where empty.
+    private int[] addresses;
+    private String[] macAddresses;
+    private int size;
+    // Incremented whenever an entry is added, so caches can tell they are stale.
+    private int version;
 
     /**
      * Constructor for the src.tables.ARPTable class.
      */
     public ARPTable() {
-        setTable(new HashMap<String, String>());
+        this.addresses = new int[16];
+        this.macAddresses = new String[16];
     }
 
     /**
@@ -26,14 +35,57 @@ public class ARPTable {
     public void addEntry(String ipAddress, String macAddress) {
         if (ipAddress == null || macAddress == null) {
             System.out.println("ERROR: ARP table entry cannot be null!");
-        } else if (getTable().containsKey(ipAddress)) {
+            return;
+        }
+        int bits;
+        try {
+            bits = IPv4Address.parse(ipAddress);
+        } catch (UnknownHostException e) {
+            System.out.println("ERROR: " + e.getMessage());
+            return;
+        }
+        if (this.find(bits) != null) {
             System.out.printf("ERROR: %s already has MAC address associated with it.",
                                      ipAddress);
         } else {
-            getTable().put(ipAddress, macAddress);
+            this.put(bits, macAddress);
+            this.version++;
+        }
+    }
+
+    /**
+     * Check whether an IP address has an ARP entry, without reporting a miss.
+     *
+     * @param ipAddress The IP address.
+     * @return true if the address has a MAC address, false otherwise.
+     */
+    public boolean hasARPEntry(String ipAddress) {
+        try {
+            return this.find(IPv4Address.parse(ipAddress)) != null;
+        } catch (UnknownHostException e) {
+            return false;
         }
     }
 
+    /**
+     * Check whether an IP address has an ARP entry, without reporting a miss.
+     *
+     * @param ipAddress The IP address.
+     * @return true if the address has a MAC address, false otherwise.
+     */
+    public boolean hasARPEntry(IPv4Address ipAddress) {
+        return this.find(ipAddress.getBits()) != null;
+    }
+
+    /**
+     * Get the version of this table, which changes whenever an entry is added.
+     *
+     * @return The version.
+     */
+    public int getVersion() {
+        return this.version;
+    }
+
     /**
      * Gets the ARP entry associated with the given IP address.
      *
@@ -41,29 +93,97 @@ public class ARPTable {
      * @return The MAC address associated with the given IP address.
      */
     public String getARPEntry(String ipAddress) {
-        if (!getTable().containsKey(ipAddress)) {
-            System.out.printf("ERROR: %s could not be found in ARP table. \n",
-                                     ipAddress);
-            return null;
+        String macAddress = null;
+        try {
+            macAddress = this.find(IPv4Address.parse(ipAddress));
+        } catch (UnknownHostException e) {
+            // Not an address, so not in the table either.
+        }
+        if (macAddress == null) {
+            reportMiss(ipAddress);
         }
-        return getTable().get(ipAddress);
+        return macAddress;
     }
 
     /**
-     * Get the underlying table hashmap.
+     * Gets the ARP entry associated with the given IP address.
+     *
+     * @param ipAddress The IP address.
+     * @return The MAC address associated with the given IP address.
+     */
+    public String getARPEntry(IPv4Address ipAddress) {
+        String macAddress = this.find(ipAddress.getBits());
+        if (macAddress == null) {
+            reportMiss(ipAddress.getAddressString());
+        }
+        return macAddress;
+    }
+
+    /**
+     * Report that an IP address could not be found in the ARP table.
      *
-     * @return The table hashmap.
+     * @param ipAddress The IP address.
      */
-    private HashMap<String, String> getTable() {
-        return table;
+    public static void reportMiss(String ipAddress) {
+        System.out.printf("ERROR: %s could not be found in ARP table. \n", ipAddress);
+    }
+
+    /**
+     * Find the MAC address of an address.
+     *
+     * @param bits The address bits.
+     * @return The MAC address, or null if there is none.
+     */
+    private String find(int bits) {
+        int mask = this.addresses.length - 1;
+        for (int bucket = hash(bits) & mask; this.macAddresses[bucket] != null;
+             bucket = (bucket + 1) & mask) {
+            if (this.addresses[bucket] == bits) {
+                return this.macAddresses[bucket];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Add the MAC address of an address not yet in the table, growing the
+     * table when it is half full.
+     *
+     * @param bits       The address bits.
+     * @param macAddress The MAC address.
+     */
+    private void put(int bits, String macAddress) {
+        if ((this.size + 1) * 2 > this.addresses.length) {
+            int[] addresses = this.addresses;
+            String[] macAddresses = this.macAddresses;
+            this.addresses = new int[addresses.length * 2];
+            this.macAddresses = new String[addresses.length * 2];
+            this.size = 0;
+            for (int i = 0; i < addresses.length; ++i) {
+                if (macAddresses[i] != null) {
+                    this.put(addresses[i], macAddresses[i]);
+                }
+            }
+        }
+        int mask = this.addresses.length - 1;
+        int bucket = hash(bits) & mask;
+        while (this.macAddresses[bucket] != null) {
+            bucket = (bucket + 1) & mask;
+        }
+        this.addresses[bucket] = bits;
+        this.macAddresses[bucket] = macAddress;
+        this.size++;
     }
 
     /**
-     * Set the underlying table hashmap, used by constructor.
+     * Spread address bits over the table, since the hosts of a network share
+     * their high bits.
      *
-     * @param table The table to be set.
+     * @param bits The address bits.
+     * @return The hash.
      */
-    private void setTable(HashMap<String, String> table) {
-        this.table = table;
+    private static int hash(int bits) {
+        int hash = bits * 0x9E3779B9;
+        return hash ^ hash >>> 16;
     }
 }
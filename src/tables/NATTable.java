@@ -76,6 +76,16 @@ public class NATTable {
         getTranslationTable().add(0, translationEntry);
     }
 
+    /**
+     * Keep the translations of the table this one replaces, so connections
+     * translated before a reload are still translated back after it.
+     *
+     * @param previous The NAT table being replaced.
+     */
+    public void keepTranslations(NATTable previous) {
+        setTranslationTable(previous.getTranslationTable());
+    }
+
     /**
      * Get the translation table entry for a destination address and port.
      *
@@ -85,7 +95,7 @@ public class NATTable {
      */
     public TranslationTableEntry getTranslation(IPv4Address address, int port) {
         for (TranslationTableEntry entry : getTranslationTable()) {
-            if (entry.getTranslatedDestination().getAddress() == address.getAddress() &&
+            if (entry.getTranslatedDestination().getBits() == address.getBits() &&
                         entry.getTranslatedSourcePort() == port) {
                 return entry;
             }
@@ -100,9 +110,9 @@ public class NATTable {
      * @return true if it is in the translation table, false otherwise.
      */
     public boolean hasBeenTranslated(IPv4PDU pdu) {
-        for (String interfaceType : getTable().keySet()) {
-            if (getTable().get(interfaceType).getAddress() == pdu.getDestinationAddress()
-                                                                      .getAddress()) {
+        int destination = pdu.getDestinationAddress().getBits();
+        for (IPv4Address address : getTable().values()) {
+            if (address.getBits() == destination) {
                 return true;
             }
         }
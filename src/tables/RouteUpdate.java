@@ -0,0 +1,85 @@
+package src.tables;
+
+import src.address.DestinationAddress;
+
+/**
+ * A timestamped route announcement or withdrawal read from a route update
+ * feed. A line is either "time announce a.b.c.d/x gateway interface" or
+ * "time withdraw a.b.c.d/x", where the time is in milliseconds from the start
+ * of the feed.
+ *
+ * @author silval
+ */
+public class RouteUpdate {
+    // The time of the update in milliseconds from the start of the feed.
+    private final long time;
+    // The route announced, null for a withdrawal.
+    private final RoutingTableEntry entry;
+    // The prefix announced or withdrawn.
+    private final DestinationAddress destination;
+
+    /**
+     * Constructor for a route update from a line of the feed.
+     *
+     * @param line The line.
+     * @throws Exception If the line is not a valid update.
+     */
+    public RouteUpdate(String line) throws Exception {
+        String[] columns = line.trim().split("\\s+", 3);
+        if (columns.length != 3) {
+            throw new Exception("Route update has incorrect formatting: " + line);
+        }
+        this.time = Long.parseLong(columns[0]);
+        if (this.time < 0) {
+            throw new Exception("Route update time is negative: " + line);
+        }
+        if (columns[1].equalsIgnoreCase("announce")) {
+            if (columns[2].split("\\s+").length != 3) {
+                throw new Exception("Route update has incorrect formatting: " + line);
+            }
+            this.entry = new RoutingTableEntry(columns[2]);
+            this.destination = this.entry.getDestinationAddress();
+        } else if (columns[1].equalsIgnoreCase("withdraw")) {
+            this.entry = null;
+            this.destination = new DestinationAddress(columns[2]);
+        } else {
+            throw new Exception("Route update is neither announce nor withdraw: " + line);
+        }
+    }
+
+    /**
+     * Get the time of the update.
+     *
+     * @return The time in milliseconds from the start of the feed.
+     */
+    public long getTime() {
+        return this.time;
+    }
+
+    /**
+     * Determine if this update announces a route.
+     *
+     * @return true for an announcement, false for a withdrawal.
+     */
+    public boolean isAnnouncement() {
+        return this.entry != null;
+    }
+
+    /**
+     * Get the route announced.
+     *
+     * @return The router table entry, or null for a withdrawal.
+     */
+    public RoutingTableEntry getEntry() {
+        return this.entry;
+    }
+
+    /**
+     * Get the prefix announced or withdrawn.
+     *
+     * @return The destination prefix.
+     */
+    public DestinationAddress getDestinationAddress() {
+        return this.destination;
+    }
+}
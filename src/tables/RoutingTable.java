@@ -58,7 +58,7 @@ public class RoutingTable {
      */
     public RoutingTableEntry getEntry(GatewayAddress gateway) {
         for (RoutingTableEntry entry : this.table) {
-            if (entry.getGatewayAddress().getAddress() == gateway.getAddress()) {
+            if (entry.getGatewayAddress().getBits() == gateway.getBits()) {
                 return entry;
             }
         }
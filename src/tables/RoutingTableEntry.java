@@ -1,5 +1,6 @@
 package src.tables;
 
+import src.address.AddressPool;
 import src.address.DestinationAddress;
 import src.address.GatewayAddress;
 
@@ -21,13 +22,28 @@ public class RoutingTableEntry {
      * @throws Exception If line is not properly formatted.
      */
     public RoutingTableEntry(String line) throws Exception {
+        this(line, null);
+    }
+
+    /**
+     * The src.tables.RoutingTableEntry constructor, sharing gateway addresses
+     * with the other entries read into the same pool.
+     *
+     * @param line     A line of a routes.txt file, with three columns
+     *                 containing destination address, gateway address, and
+     *                 interface.
+     * @param gateways The gateway addresses read so far, or null to not share.
+     * @throws Exception If line is not properly formatted.
+     */
+    public RoutingTableEntry(String line, AddressPool<GatewayAddress> gateways) throws Exception {
         String[] columns = line.split("\\s+");
         if (columns.length != 3) {
             System.out
                     .println("ERROR: Routing table has incorrect formatting!");
         } else {
             this.destinationAddress = new DestinationAddress(columns[0]);
-            this.gatewayAddress = new GatewayAddress(columns[1]);
+            GatewayAddress gateway = new GatewayAddress(columns[1]);
+            this.gatewayAddress = gateways == null ? gateway : gateways.intern(gateway);
             this.interfaceType = columns[2];
         }
     }
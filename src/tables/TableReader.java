@@ -1,5 +1,7 @@
 package src.tables;
 
+import src.address.AddressPool;
+import src.address.GatewayAddress;
 import src.address.IPv4Address;
 
 import java.io.BufferedReader;
@@ -29,7 +31,8 @@ public class TableReader extends FileReader {
     }
 
     /**
-     * Constructs a src.tables.RoutingTable from the file.
+     * Constructs a src.tables.RoutingTable from the file. Routes through the
+     * same gateway share one gateway address.
      *
      * @return The newly constructed src.tables.RoutingTable.
      * @throws Exception If the router table cannot be created.
@@ -37,8 +40,9 @@ public class TableReader extends FileReader {
     public RoutingTable constructRoutingTable() throws Exception {
         String line = this.readLine();
         RoutingTable table = new RoutingTable();
+        AddressPool<GatewayAddress> gateways = new AddressPool<GatewayAddress>();
         while (line != null && line.length() > 0) {
-            RoutingTableEntry row = new RoutingTableEntry(line);
+            RoutingTableEntry row = new RoutingTableEntry(line, gateways);
             table.addEntry(row);
             line = this.readLine();
         }
@@ -67,12 +71,14 @@ public class TableReader extends FileReader {
 
     /**
      * Constructs the NAT Table from the data stored within the file.
+     * Interfaces behind the same NAT address share one address.
      *
      * @return The newly constructed NAT table.
      */
     public NATTable constructNATTable() {
         String line = this.readLine();
         NATTable table = new NATTable();
+        AddressPool<IPv4Address> addresses = new AddressPool<IPv4Address>();
         while (line != null && line.length() > 0) {
             String[] columns = line.split("\\s+");
             if (columns.length != 2) {
@@ -81,7 +87,7 @@ public class TableReader extends FileReader {
             }
             IPv4Address address;
             try {
-                address = new IPv4Address(columns[1]);
+                address = addresses.intern(new IPv4Address(columns[1]));
             } catch (java.net.UnknownHostException e) {
                 System.out.println("ERROR: " + e.getMessage());
                 return null;
@@ -92,6 +98,22 @@ public class TableReader extends FileReader {
         return table;
     }
 
+    /**
+     * Reads the next route update from the file, skipping blank lines and
+     * lines starting with '#'. Lines are read one at a time, so the file can
+     * be a stream that is still being written.
+     *
+     * @return The route update, or null at the end of the file.
+     * @throws Exception If the line is not a valid route update.
+     */
+    public RouteUpdate readRouteUpdate() throws Exception {
+        String line = this.readLine();
+        while (line != null && (line.trim().length() == 0 || line.trim().startsWith("#"))) {
+            line = this.readLine();
+        }
+        return line == null ? null : new RouteUpdate(line);
+    }
+
     /**
      * Reads a single line from the file. If it is the last line, it closes the
      * file.